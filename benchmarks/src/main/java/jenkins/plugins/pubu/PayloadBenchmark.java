@@ -0,0 +1,58 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload construction for builds with change sets from a handful to tens of thousands of entries. The
+ * builds also have a test result with hundreds of failures, so the build status payload includes listing
+ * and classifying them for the test summary.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entries;
+
+    private ActiveNotifier notifier;
+    private AbstractBuild<?, ?> build;
+
+    @Setup
+    public void setUp() {
+        notifier = SyntheticBuilds.notifier("http://127.0.0.1/hook");
+        build = SyntheticBuilds.build(entries);
+    }
+
+    @Benchmark
+    public JSONObject buildStatusPayload() {
+        return ActiveNotifier.getBuildStatusPayload(build, true, "completed");
+    }
+
+    @Benchmark
+    public JSONObject changes() {
+        return notifier.getChanges(build);
+    }
+
+    @Benchmark
+    public JSONObject commitList() {
+        return notifier.getCommitList(build);
+    }
+}
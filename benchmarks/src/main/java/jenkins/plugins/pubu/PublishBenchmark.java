@@ -0,0 +1,97 @@
+package jenkins.plugins.pubu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link StandardSlackService#publish(JSONObject)} against an in-process HTTP endpoint on the loopback
+ * interface that reads the request and answers 200, so the numbers cover encoding, the pooled client
+ * and the HTTP exchange but not a real network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean json;
+
+    // held so the level set below is not lost when the logger is collected
+    private final Logger serviceLogger = Logger.getLogger(StandardSlackService.class.getName());
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private StandardSlackService service;
+    private JSONObject payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hook", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                exchange.close();
+            }
+        });
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.start();
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+        serviceLogger.setLevel(Level.WARNING);
+        RateLimiter.get().configure(0, 0);
+        PayloadEncoder.get().configure(json, false, PayloadEncoder.DEFAULT_MAX_PAYLOAD_SIZE);
+        service = new StandardSlackService(url);
+        payload = SyntheticBuilds.notifier(url).getCommitList(SyntheticBuilds.build(entries));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return service.publish(payload);
+    }
+}
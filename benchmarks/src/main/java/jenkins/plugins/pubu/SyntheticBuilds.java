@@ -0,0 +1,155 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocked builds with synthetic change sets and test results, and a notifier configured the way a typical
+ * job is.
+ */
+final class SyntheticBuilds {
+
+    private static final int AUTHORS = 50;
+    private static final int FILES = 1000;
+    private static final int TESTS = 5000;
+    private static final int FAILED_TESTS = 500;
+
+    private SyntheticBuilds() {
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static AbstractBuild build(int entries) {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getFullDisplayName()).thenReturn("benchmarks » notifier");
+
+        final List<ChangeLogSet.Entry> list = entries(entries);
+        ChangeLogSet changeSet = mock(ChangeLogSet.class);
+        when(changeSet.iterator()).thenAnswer(new Answer<Iterator<ChangeLogSet.Entry>>() {
+            public Iterator<ChangeLogSet.Entry> answer(InvocationOnMock invocation) {
+                return list.iterator();
+            }
+        });
+
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getParent()).thenReturn(project);
+        when(build.getProject()).thenReturn(project);
+        when(build.getDisplayName()).thenReturn("#42");
+        when(build.getUrl()).thenReturn("job/notifier/42/");
+        when(build.getDurationString()).thenReturn("3 min 12 sec");
+        when(build.getResult()).thenReturn(Result.SUCCESS);
+        when(build.hasChangeSetComputed()).thenReturn(true);
+        when(build.getChangeSet()).thenReturn(changeSet);
+        // a new number on every call, so the test summary cached for the last one is not reused and every
+        // call reads the failures again
+        when(build.getNumber()).thenAnswer(new Answer<Integer>() {
+            private int number;
+
+            public Integer answer(InvocationOnMock invocation) {
+                return ++number;
+            }
+        });
+        AbstractTestResultAction action = testResults();
+        when(build.getAction(AbstractTestResultAction.class)).thenReturn(action);
+        return build;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static AbstractTestResultAction testResults() {
+        TestResult passed = mock(TestResult.class);
+        when(passed.isPassed()).thenReturn(true);
+        List<TestResult> failures = new ArrayList<TestResult>(FAILED_TESTS);
+        for (int i = 0; i < FAILED_TESTS; i++) {
+            TestResult test = mock(TestResult.class);
+            when(test.getFullName()).thenReturn("jenkins.plugins.pubu.Suite" + (i % 37) + ".test" + i);
+            // a third of the failures are new, the others regressed
+            when(test.getPreviousResult()).thenReturn(i % 3 == 0 ? null : passed);
+            failures.add(test);
+        }
+        AbstractTestResultAction action = mock(AbstractTestResultAction.class);
+        when(action.getTotalCount()).thenReturn(TESTS);
+        when(action.getFailCount()).thenReturn(FAILED_TESTS);
+        when(action.getSkipCount()).thenReturn(0);
+        when(action.getFailedTests()).thenReturn(failures);
+        return action;
+    }
+
+    static ActiveNotifier notifier(String url) {
+        SlackNotifier.DescriptorImpl global = mock(SlackNotifier.DescriptorImpl.class);
+        when(global.getTeamDomain()).thenReturn(url);
+        when(global.getMaxCommits()).thenReturn(ChangeSetSummary.DEFAULT_MAX_COMMITS);
+        when(global.getMaxAuthors()).thenReturn(ChangeSetSummary.DEFAULT_MAX_AUTHORS);
+        when(global.getMaxUpstreamDepth()).thenReturn(UpstreamCommitResolver.DEFAULT_MAX_DEPTH);
+
+        SlackNotifier.SlackJobProperty property = mock(SlackNotifier.SlackJobProperty.class);
+        when(property.getTeamDomain()).thenReturn(url);
+        when(property.getNotifySuccess()).thenReturn(true);
+        when(property.getShowCommitList()).thenReturn(true);
+        when(property.includeTestSummary()).thenReturn(true);
+        return new ActiveNotifier(new NotifierConfig(global, property));
+    }
+
+    private static List<ChangeLogSet.Entry> entries(int count) {
+        User[] authors = new User[AUTHORS];
+        for (int i = 0; i < AUTHORS; i++) {
+            authors[i] = mock(User.class);
+            when(authors[i].getDisplayName()).thenReturn("Developer " + i);
+        }
+        List<ChangeLogSet.Entry> entries = new ArrayList<ChangeLogSet.Entry>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new SyntheticEntry(i, authors[i % AUTHORS]));
+        }
+        return entries;
+    }
+
+    private static final class SyntheticEntry extends ChangeLogSet.Entry {
+        private final String msg;
+        private final String commitId;
+        private final User author;
+        private final List<String> paths;
+
+        SyntheticEntry(int i, User author) {
+            this.msg = "Change " + i + ": adjust the notifier so that it handles case " + i;
+            this.commitId = String.format("%040x", i * 2654435761L);
+            this.author = author;
+            this.paths = Arrays.asList("src/main/java/File" + (i % FILES) + ".java",
+                    "src/main/java/File" + ((i * 7) % FILES) + ".java",
+                    "src/test/java/File" + (i % FILES) + "Test.java");
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public String getCommitId() {
+            return commitId;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return paths;
+        }
+    }
+}
@@ -1,148 +1,256 @@
 package jenkins.plugins.pubu;
 
-import hudson.Util;
 import hudson.model.Result;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Cause;
 import hudson.model.CauseAction;
-import hudson.model.Hudson;
 import hudson.model.Run;
-import hudson.scm.ChangeLogSet;
-import hudson.scm.ChangeLogSet.AffectedFile;
-import hudson.scm.ChangeLogSet.Entry;
-import hudson.tasks.test.AbstractTestResultAction;
 import hudson.triggers.SCMTrigger;
-import org.apache.commons.lang.StringUtils;
+import jenkins.plugins.pubu.NotificationDispatcher.Priority;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.json.JSONObject;
-import org.json.JSONArray;
 
 @SuppressWarnings("rawtypes")
 public class ActiveNotifier implements FineGrainedNotifier {
 
     private static final Logger logger = Logger.getLogger(SlackListener.class.getName());
 
-    SlackNotifier notifier;
+    private final NotifierConfig config;
 
-    public ActiveNotifier(SlackNotifier notifier) {
+    public ActiveNotifier(NotifierConfig config) {
         super();
-        this.notifier = notifier;
+        this.config = config;
     }
 
-    private SlackService getLeanChat(AbstractBuild r) {
-        AbstractProject<?, ?> project = r.getProject();
-        String teamDomain = Util.fixEmpty(project.getProperty(SlackNotifier.SlackJobProperty.class).getTeamDomain());
-        return notifier.newSlackService(teamDomain);
+    NotifierConfig getConfig() {
+        return config;
     }
 
-    public void deleted(AbstractBuild r) {
+    private void publish(Run build, JSONObject payload, Priority priority) {
+        NotificationDispatcher.get().dispatch(build.getParent().getFullName(),
+                config.newSlackServices(build.getResult() == Result.FAILURE), payload, priority);
     }
 
-    public void started(AbstractBuild build) {
+    /**
+     * Adds the job's message template, if any, as the {@code text} of a completion payload. Start and
+     * commit list payloads lack the result fields a template is written against, so they are left alone.
+     */
+    private void render(Run build, JSONObject payload) {
+        MessageTemplate template = config.getMessageTemplate();
+        if (template != null) {
+            payload.put("text", template.render(new BuildScope(build, payload)));
+        }
+    }
+
+    /**
+     * Values for a message template: the payload's own fields, then {@code number}, {@code result},
+     * {@code failure} and {@code success}, then the build's variables, such as its parameters, which
+     * only freestyle builds have.
+     */
+    static final class BuildScope implements MessageTemplate.Scope {
+        private final Run build;
+        private final JSONObject payload;
+        private Map<String, String> variables;
+
+        BuildScope(Run build, JSONObject payload) {
+            this.build = build;
+            this.payload = payload;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object get(String name) {
+            Object value = payload.opt(name);
+            if (value != null) {
+                return value;
+            }
+            Result result = build.getResult();
+            if ("number".equals(name)) {
+                return build.getNumber();
+            } else if ("result".equals(name)) {
+                return result;
+            } else if ("failure".equals(name)) {
+                return result == Result.FAILURE;
+            } else if ("success".equals(name)) {
+                return result == Result.SUCCESS;
+            }
+            if (variables == null) {
+                variables = build instanceof AbstractBuild ? ((AbstractBuild) build).getBuildVariables()
+                        : Collections.<String, String>emptyMap();
+            }
+            return variables.get(name);
+        }
+    }
+
+    public void deleted(Run r) {
+    }
+
+    /**
+     * Change sets are only read from freestyle builds; other runs start with their status alone.
+     */
+    public void started(Run build) {
+        long start = System.nanoTime();
         CauseAction causeAction = build.getAction(CauseAction.class);
+        boolean coalesce = config.getCoalesceEvents();
 
+        String reason = null;
         if (causeAction != null) {
             Cause scmCause = causeAction.findCause(SCMTrigger.SCMTriggerCause.class);
             if (scmCause == null) {
-                JSONObject payload = new JSONObject();
-                payload.put("project", build.getProject().getFullDisplayName());
-                payload.put("display", build.getDisplayName());
-                payload.put("link", build.getUrl());
-                payload.put("event", "Cause");
-                payload.put("reason", causeAction.getShortDescription());
-                notifyStart(build, payload);
+                reason = causeAction.getShortDescription();
+                if (!coalesce) {
+                    JSONObject payload = new JSONObject();
+                    payload.put("project", build.getParent().getFullDisplayName());
+                    payload.put("display", build.getDisplayName());
+                    payload.put("link", build.getUrl());
+                    payload.put("event", "Cause");
+                    payload.put("reason", reason);
+                    notifyStart(build, payload, start);
+                    start = System.nanoTime();
+                }
             }
         }
 
-        JSONObject changes = getChanges(build);
-        if (changes != null) {
-            notifyStart(build, changes);
-        } else {
-            notifyStart(build, getBuildStatusPayload(build, false, "start"));
+        JSONObject changes = build instanceof AbstractBuild ? getChanges((AbstractBuild) build) : null;
+        if (changes == null) {
+            changes = getBuildStatusPayload(build, false, "start");
         }
+        if (coalesce && reason != null) {
+            changes.put("reason", reason);
+        }
+        notifyStart(build, changes, start);
     }
 
-    private void notifyStart(AbstractBuild build, JSONObject payload) {
-        AbstractProject<?, ?> project = build.getProject();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild().getPreviousCompletedBuild();
-        if (previousBuild == null) {
-            getLeanChat(build).publish(payload);
-        } else {
-            payload.put("status", getBuildStatus(previousBuild));
-            getLeanChat(build).publish(payload);
+    private void notifyStart(Run build, JSONObject payload, long start) {
+        Result previousResult = BuildResultIndex.get().previous(build).getLastResult();
+        if (previousResult != null) {
+            payload.put("status", getBuildStatus(previousResult));
         }
+        PubuMetrics.get().recordPayloadBuild(System.nanoTime() - start);
+        publish(build, payload, Priority.LOW);
     }
 
-    public void finalized(AbstractBuild r) {
+    public void finalized(Run r) {
     }
 
-    public void completed(AbstractBuild build) {
-        AbstractProject<?, ?> project = build.getProject();
-        SlackNotifier.SlackJobProperty jobProperty = project.getProperty(SlackNotifier.SlackJobProperty.class);
-        if (jobProperty == null) {
-            logger.warning("Project " + project.getName() + " has no Pubu configuration.");
-            return;
-        }
+    public void completed(Run build) {
         Result result = build.getResult();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild();
-        do {
-            previousBuild = previousBuild.getPreviousCompletedBuild();
-        } while (previousBuild != null && previousBuild.getResult() == Result.ABORTED);
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
-        if ((result == Result.ABORTED && jobProperty.getNotifyAborted())
+        BuildResultIndex.Entry previous = BuildResultIndex.get().previous(build);
+        Result previousResult = previous.getLastNonAbortedResult();
+        if (previousResult == null) {
+            previousResult = Result.SUCCESS;
+        }
+        boolean flapping = DigestCollector.get().isFlapping(build, result, previousResult, config);
+        if (notifies(result, previousResult)) {
+            if (config.getDigest() || flapping) {
+                DigestCollector.get().add(build, previousResult, flapping, config);
+                return;
+            }
+            // read before the listener records this build, which may happen before the payload is built
+            final BuildResultIndex.Stats stats = previous.getStats();
+            // failures, recoveries and aborted builds are what people act on, so they go first under load
+            final Priority priority = result == Result.SUCCESS && previousResult == Result.SUCCESS
+                    || result == Result.NOT_BUILT ? Priority.LOW : Priority.HIGH;
+            if (config.includeTestSummary()) {
+                // reading the test results may load them from disk, so leave that to the notifier's workers
+                final Run completed = build;
+                boolean queued = NotificationDispatcher.get().execute(new Runnable() {
+                    public void run() {
+                        publishCompleted(completed, priority, stats, true, false);
+                    }
+                }, build.getParent().getFullName(), priority);
+                if (!queued && priority == Priority.HIGH) {
+                    // the queue is full: send what is cheap to build, which the outbox keeps if still full
+                    publishCompleted(build, priority, stats, false, false);
+                }
+            } else {
+                publishCompleted(build, priority, stats, false, false);
+            }
+        }
+    }
+
+    private boolean notifies(Result result, Result previousResult) {
+        return (result == Result.ABORTED && config.getNotifyAborted())
                 || (result == Result.FAILURE
-                && (previousResult != Result.FAILURE || jobProperty.getNotifyRepeatedFailure())
-                && jobProperty.getNotifyFailure())
-                || (result == Result.NOT_BUILT && jobProperty.getNotifyNotBuilt())
+                && (previousResult != Result.FAILURE || config.getNotifyRepeatedFailure())
+                && config.getNotifyFailure())
+                || (result == Result.NOT_BUILT && config.getNotifyNotBuilt())
                 || (result == Result.SUCCESS
                 && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE)
-                && jobProperty.getNotifyBackToNormal())
-                || (result == Result.SUCCESS && jobProperty.getNotifySuccess())
-                || (result == Result.UNSTABLE && jobProperty.getNotifyUnstable())) {
-            getLeanChat(build).publish(getBuildStatusPayload(build, jobProperty.includeTestSummary(), "completed"));
-            if (jobProperty.getShowCommitList()) {
-                getLeanChat(build).publish(getCommitList(build));
+                && config.getNotifyBackToNormal())
+                || (result == Result.SUCCESS && config.getNotifySuccess())
+                || (result == Result.UNSTABLE && config.getNotifyUnstable());
+    }
+
+    /**
+     * Sends the completion notification of a finished build again, with low priority and marked as a
+     * replay, if the job's settings would have sent one when it completed. Digests are not replayed;
+     * each build gets its own notification.
+     *
+     * @param previousResult the result of the last build before it that was not aborted, or null if none
+     * @return false if the build would not have been notified
+     */
+    boolean replay(AbstractBuild build, Result previousResult) {
+        if (!notifies(build.getResult(), previousResult == null ? Result.SUCCESS : previousResult)) {
+            return false;
+        }
+        publishCompleted(build, Priority.LOW, null, config.includeTestSummary(), true);
+        return true;
+    }
+
+    /**
+     * @param stats        the job's statistics before this build, or null to leave them out
+     * @param includeTests whether to read the test results for the summary, which may load them from disk
+     */
+    private void publishCompleted(Run build, Priority priority, BuildResultIndex.Stats stats, boolean includeTests,
+                                  boolean replay) {
+        long start = System.nanoTime();
+        JSONObject payload = getBuildStatusPayload(build, includeTests, "completed");
+        if (stats != null) {
+            stats.addTo(payload, build);
+        }
+        // only freestyle builds have their change sets at hand
+        JSONObject commits = config.getShowCommitList() && build instanceof AbstractBuild ? getCommitList((AbstractBuild) build) : null;
+        PubuMetrics.get().recordPayloadBuild(System.nanoTime() - start);
+        if (replay) {
+            payload.put("replay", true);
+            if (commits != null) {
+                commits.put("replay", true);
             }
         }
+        if (commits == null) {
+            render(build, payload);
+            publish(build, payload, priority);
+        } else if (config.getCoalesceEvents()) {
+            render(build, merge(payload, commits));
+            publish(build, payload, priority);
+        } else {
+            render(build, payload);
+            publish(build, payload, priority);
+            publish(build, commits, Priority.LOW);
+        }
     }
 
     JSONObject getChanges(AbstractBuild build) {
         if (!build.hasChangeSetComputed()) {
-            logger.info("No change set computed...");
+            logger.fine("No change set computed...");
             return null;
         }
+        // only the counts are used, so no commits are kept
+        return getChanges(build, ChangeSetSummary.of(build.getChangeSet(), 0, config.getMaxAuthors()));
+    }
 
-        ChangeLogSet changeSet = build.getChangeSet();
-        List<Entry> entries = new LinkedList<Entry>();
-        Set<AffectedFile> files = new HashSet<AffectedFile>();
-
-        for (Object o : changeSet.getItems()) {
-            Entry entry = (Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-            files.addAll(entry.getAffectedFiles());
-        }
-
+    private JSONObject getChanges(AbstractBuild build, ChangeSetSummary summary) {
         JSONObject payload = new JSONObject();
-
-        if (entries.isEmpty()) {
-            logger.info("Empty change...");
-        } else {
-            Set<String> authors = new HashSet<String>();
-            for (Entry entry : entries) {
-                authors.add(entry.getAuthor().getDisplayName());
-            }
-            payload.put("authors", StringUtils.join(authors, ", "));
+        if (!summary.isEmpty()) {
+            payload.put("authors", summary.getAuthors());
         }
-
-        payload.put("changes", files.size());
+        payload.put("changes", summary.getFileCount());
         payload.put("project", build.getProject().getFullDisplayName());
         payload.put("display", build.getDisplayName());
         payload.put("link", build.getUrl());
@@ -151,47 +259,49 @@ public class ActiveNotifier implements FineGrainedNotifier {
     }
 
     JSONObject getCommitList(AbstractBuild build) {
-        ChangeLogSet changeSet = build.getChangeSet();
-        JSONObject payload = getChanges(build);
-
-        if (payload == null) {
-            payload = new JSONObject();
-        }
+        ChangeSetSummary summary = summarize(build);
+        JSONObject payload = build.hasChangeSetComputed() ? getChanges(build, summary) : new JSONObject();
 
-        List<Entry> entries = new LinkedList<Entry>();
-        for (Object o : changeSet.getItems()) {
-            Entry entry = (Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-        }
-        if (entries.isEmpty()) {
-            logger.info("Empty change...");
-            Cause.UpstreamCause c = (Cause.UpstreamCause) build.getCause(Cause.UpstreamCause.class);
-            if (c == null) {
+        if (summary.isEmpty()) {
+            logger.fine("Empty change...");
+            UpstreamCommitResolver.Resolution upstream = UpstreamCommitResolver.get().resolve(build,
+                    config.getMaxUpstreamDepth(), config.getMaxCommits(), config.getMaxAuthors());
+            if (upstream == null) {
                 return payload;
             }
-            String upProjectName = c.getUpstreamProject();
-            int buildNumber = c.getUpstreamBuild();
-            AbstractProject project = Hudson.getInstance().getItemByFullName(upProjectName, AbstractProject.class);
-            AbstractBuild upBuild = (AbstractBuild) project.getBuildByNumber(buildNumber);
-            return getCommitList(upBuild);
+            payload = getChanges(upstream.build, upstream.summary);
+            summary = upstream.summary;
         }
 
-        JSONArray commits = new JSONArray();
+        payload.put("commits", summary.getCommits());
+        return payload;
+    }
 
-        for (Entry entry : entries) {
-            JSONObject commit = new JSONObject();
-            commit.put("entry", entry.getMsg());
-            commit.put("commit", commit.toString());
-            commit.put("author", entry.getAuthor().getDisplayName());
-            commits.put(commit);
+    private ChangeSetSummary summarize(AbstractBuild build) {
+        return ChangeSetSummary.of(build.getChangeSet(), config.getMaxCommits(), config.getMaxAuthors());
+    }
+
+    /**
+     * Copies the fields of {@code extra} that {@code payload} does not already have, so the fields
+     * describing the event itself win over those of the merged fragment. A field both have, such as the
+     * commit list's {@code event} or {@code link}, keeps the payload's value, and the fragment's is
+     * dropped.
+     */
+    static JSONObject merge(JSONObject payload, JSONObject extra) {
+        for (Iterator<?> keys = extra.keys(); keys.hasNext(); ) {
+            String key = (String) keys.next();
+            if (!payload.has(key)) {
+                payload.put(key, extra.get(key));
+            }
         }
-        payload.put("commits", commits);
         return payload;
     }
 
-    static String getBuildStatus(AbstractBuild r) {
-        Result result = r.getResult();
+    static String getBuildStatus(Run<?, ?> r) {
+        return getBuildStatus(r.getResult());
+    }
+
+    static String getBuildStatus(Result result) {
         if (result == Result.SUCCESS) {
             return "Success";
         } else if (result == Result.FAILURE) {
@@ -206,11 +316,11 @@ public class ActiveNotifier implements FineGrainedNotifier {
         return "Unknown";
     }
 
-    JSONObject getBuildStatusPayload(AbstractBuild build, boolean includeTestSummary, String event) {
+    static JSONObject getBuildStatusPayload(Run<?, ?> build, boolean includeTestSummary, String event) {
         JSONObject payload = new JSONObject();
         payload.put("status", getBuildStatus(build));
         payload.put("duration", build.getDurationString());
-        payload.put("project", build.getProject().getFullDisplayName());
+        payload.put("project", build.getParent().getFullDisplayName());
         payload.put("display", build.getDisplayName());
         payload.put("link", build.getUrl());
         payload.put("event", event);
@@ -219,15 +329,9 @@ public class ActiveNotifier implements FineGrainedNotifier {
             return payload;
         }
 
-        AbstractTestResultAction<?> action = build.getAction(AbstractTestResultAction.class);
-        if (action != null) {
-            int total = action.getTotalCount();
-            int failed = action.getFailCount();
-            int skipped = action.getSkipCount();
-            payload.put("Passed", total - failed - skipped);
-            payload.put("Failed", failed);
-            payload.put("Skipped", skipped);
-
+        TestSummary tests = TestSummary.of(build);
+        if (tests != null) {
+            tests.addTo(payload);
         }
         return payload;
     }
@@ -0,0 +1,106 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ProxyServer;
+import hudson.ProxyConfiguration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Sends with a non-blocking (NIO) HTTP client. A request only occupies a connection while it is in
+ * flight, not a thread, so a few I/O threads keep the requests to every webhook going.
+ */
+final class AsyncHttpTransport implements PubuTransport {
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 100;
+
+    private final AsyncHttpClient client;
+    // null to connect directly
+    private final ProxyServer proxyServer;
+    private final List<Pattern> noProxyHosts;
+
+    /**
+     * @param proxy the Jenkins proxy settings, or null to connect directly; hosts matching its no proxy
+     *              hosts are connected to directly
+     */
+    AsyncHttpTransport(int connectTimeout, int requestTimeout, ProxyConfiguration proxy) {
+        AsyncHttpClientConfig.Builder config = new AsyncHttpClientConfig.Builder()
+                .setConnectionTimeoutInMs(connectTimeout)
+                .setRequestTimeoutInMs(requestTimeout)
+                .setMaximumConnectionsPerHost(MAX_CONNECTIONS_PER_HOST)
+                .setAllowPoolingConnection(true);
+        // the proxy is chosen per request, so the no proxy hosts use the same patterns as the rest of Jenkins
+        if (proxy != null) {
+            proxyServer = new ProxyServer(proxy.name, proxy.port, proxy.getUserName(), proxy.getPassword());
+            noProxyHosts = ProxyConfiguration.getNoProxyHostPatterns(proxy.noProxyHost);
+        } else {
+            proxyServer = null;
+            noProxyHosts = Collections.emptyList();
+        }
+        client = new AsyncHttpClient(config.build());
+    }
+
+    public ListenableFuture<Response> send(String url, EncodedPayload payload) {
+        final SettableFuture<Response> response = SettableFuture.create();
+        try {
+            AsyncHttpClient.BoundRequestBuilder request = client.preparePost(url)
+                    .setBody(payload.getBody())
+                    .setHeader("Content-Type", payload.getContentType());
+            if (payload.getContentEncoding() != null) {
+                request.setHeader("Content-Encoding", payload.getContentEncoding());
+            }
+            if (proxyServer != null && !bypassesProxy(url)) {
+                request.setProxyServer(proxyServer);
+            }
+            request.execute(new AsyncCompletionHandler<Void>() {
+                @Override
+                public Void onCompleted(com.ning.http.client.Response r) throws Exception {
+                    response.set(new Response(r.getStatusCode(), r.getHeader("Retry-After"), r.getResponseBody()));
+                    return null;
+                }
+
+                @Override
+                public void onThrowable(Throwable t) {
+                    response.setException(t);
+                }
+            });
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return response;
+    }
+
+    private boolean bypassesProxy(String url) {
+        String host;
+        try {
+            host = new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+        if (host == null) {
+            return false;
+        }
+        for (Pattern pattern : noProxyHosts) {
+            if (pattern.matcher(host).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,400 @@
+package jenkins.plugins.pubu;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small per-job index of recent build results, kept in {@code pubu-index.xml} next to the job's
+ * {@code config.xml}. It is updated from {@link SlackListener} as builds complete, so deciding whether
+ * a build is back to normal or a repeated failure, or how its duration compares with the job's usual
+ * one, does not walk (and lazily load) previous builds.
+ * When the file is missing, or misses builds that completed without it, such as while the job had no
+ * Pubu notifications, the index is rebuilt once from the build history.
+ * <p>
+ * Each job's index is read, rebuilt and saved under a lock of its own, so one job's disk I/O never
+ * holds up the completion of another's builds.
+ */
+public final class BuildResultIndex {
+
+    private static final Logger logger = Logger.getLogger(BuildResultIndex.class.getName());
+
+    static final String FILE_NAME = "pubu-index.xml";
+    private static final int MAX_REBUILD_DEPTH = 1000;
+
+    private static final BuildResultIndex INSTANCE = new BuildResultIndex();
+
+    // guarded by itself, only to find a job's slot; each slot guards its own entry
+    private final Map<Job<?, ?>, Slot> slots = new WeakHashMap<Job<?, ?>, Slot>();
+
+    private BuildResultIndex() {
+    }
+
+    public static BuildResultIndex get() {
+        return INSTANCE;
+    }
+
+    static final Entry EMPTY = new Entry(0, null, null, 0, 0, new Stats());
+
+    /**
+     * Immutable view of a job's results up to its last recorded build.
+     */
+    public static final class Entry {
+        private final int lastNumber;
+        private final String lastResult;
+        private final String lastNonAbortedResult;
+        private final int lastSuccessNumber;
+        private final int failureStreak;
+        // null in indexes written before statistics were kept
+        private final Stats stats;
+
+        Entry(int lastNumber, Result lastResult, Result lastNonAbortedResult, int lastSuccessNumber, int failureStreak,
+              Stats stats) {
+            this.lastNumber = lastNumber;
+            this.lastResult = lastResult == null ? null : lastResult.toString();
+            this.lastNonAbortedResult = lastNonAbortedResult == null ? null : lastNonAbortedResult.toString();
+            this.lastSuccessNumber = lastSuccessNumber;
+            this.failureStreak = failureStreak;
+            this.stats = stats;
+        }
+
+        public int getLastNumber() {
+            return lastNumber;
+        }
+
+        /**
+         * Result of the last completed build, or null if there is none.
+         */
+        public Result getLastResult() {
+            return lastResult == null ? null : Result.fromString(lastResult);
+        }
+
+        /**
+         * Result of the last completed build that was not aborted, or null if there is none.
+         */
+        public Result getLastNonAbortedResult() {
+            return lastNonAbortedResult == null ? null : Result.fromString(lastNonAbortedResult);
+        }
+
+        public int getLastSuccessNumber() {
+            return lastSuccessNumber;
+        }
+
+        /**
+         * Number of failed builds since the last success, ignoring aborted builds.
+         */
+        public int getFailureStreak() {
+            return failureStreak;
+        }
+
+        /**
+         * Duration and failure statistics of the last builds.
+         */
+        public Stats getStats() {
+            return stats;
+        }
+
+        Entry next(int number, Result result, long durationMillis) {
+            if (result == null) {
+                return this;
+            }
+            Stats nextStats = stats.next(result, durationMillis);
+            if (result == Result.ABORTED) {
+                return new Entry(number, result, getLastNonAbortedResult(), lastSuccessNumber, failureStreak, nextStats);
+            }
+            boolean success = result == Result.SUCCESS;
+            return new Entry(number, result, result,
+                    success ? number : lastSuccessNumber,
+                    result == Result.FAILURE ? failureStreak + 1 : (success ? 0 : failureStreak), nextStats);
+        }
+
+        /**
+         * Adds a build older than the last one to the statistics only.
+         */
+        Entry late(Result result, long durationMillis) {
+            if (result == null) {
+                return this;
+            }
+            return new Entry(lastNumber, getLastResult(), getLastNonAbortedResult(), lastSuccessNumber, failureStreak,
+                    stats.next(result, durationMillis));
+        }
+    }
+
+    /**
+     * Immutable statistics of a job's last completed builds. Aborted and not built builds are left out.
+     * Durations are kept as buckets that grow by 10%, one byte per build, so percentiles are within 10%
+     * of the exact value.
+     */
+    public static final class Stats {
+        static final int WINDOW = 50;
+        // weight of the newest build in the moving average
+        static final double ALPHA = 0.2;
+        // fewer builds than this say little about the job
+        static final int MIN_BUILDS = 5;
+        private static final double GAMMA = 1.1;
+        private static final int MAX_BUCKET = 255;
+
+        private final int size;
+        // next slot of the ring
+        private final int position;
+        private final byte[] durations;
+        // bit i is set if the build in slot i failed
+        private final long failures;
+        private final double average;
+
+        Stats() {
+            this(0, 0, new byte[WINDOW], 0, 0);
+        }
+
+        private Stats(int size, int position, byte[] durations, long failures, double average) {
+            this.size = size;
+            this.position = position;
+            this.durations = durations;
+            this.failures = failures;
+            this.average = average;
+        }
+
+        /**
+         * Number of builds the percentiles and the failure rate cover, at most {@value #WINDOW}.
+         */
+        public int getBuilds() {
+            return size;
+        }
+
+        /**
+         * Exponentially weighted moving average of the durations.
+         */
+        public long getAverageMillis() {
+            return Math.round(average);
+        }
+
+        /**
+         * @param q between 0 and 1
+         * @return the duration that a {@code q} share of the last builds did not exceed, or 0 if there are none
+         */
+        public long getPercentileMillis(double q) {
+            if (size == 0) {
+                return 0;
+            }
+            int[] sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = durations[i] & 0xFF;
+            }
+            Arrays.sort(sorted);
+            int rank = Math.max(0, (int) Math.ceil(q * size) - 1);
+            return Math.round(1000 * Math.pow(GAMMA, sorted[rank]));
+        }
+
+        public int getFailures() {
+            return Long.bitCount(failures);
+        }
+
+        /**
+         * Share of the last builds that failed, between 0 and 1.
+         */
+        public double getFailureRate() {
+            return size == 0 ? 0 : (double) getFailures() / size;
+        }
+
+        Stats next(Result result, long durationMillis) {
+            if (result == null || result == Result.ABORTED || result == Result.NOT_BUILT) {
+                return this;
+            }
+            byte[] nextDurations = durations.clone();
+            nextDurations[position] = (byte) bucket(durationMillis);
+            long nextFailures = result == Result.FAILURE ? failures | 1L << position : failures & ~(1L << position);
+            return new Stats(Math.min(size + 1, WINDOW), (position + 1) % WINDOW, nextDurations, nextFailures,
+                    size == 0 ? durationMillis : ALPHA * durationMillis + (1 - ALPHA) * average);
+        }
+
+        private static int bucket(long durationMillis) {
+            if (durationMillis <= 1000) {
+                return 0;
+            }
+            return (int) Math.min(MAX_BUCKET, Math.ceil(Math.log(durationMillis / 1000.0) / Math.log(GAMMA)));
+        }
+
+        /**
+         * Adds how {@code build} compares with these statistics, which must not include it yet, for
+         * instance {@code "took 14 min (p95 9 min 2 sec, +55%)"}, where the change is against the moving
+         * average. Nothing is added while there are fewer than {@value #MIN_BUILDS} builds.
+         */
+        void addTo(JSONObject payload, Run<?, ?> build) {
+            if (size < MIN_BUILDS) {
+                return;
+            }
+            long duration = build.getDuration();
+            long average = getAverageMillis();
+            long p95 = getPercentileMillis(0.95);
+            payload.put("durationAverage", average);
+            payload.put("durationP95", p95);
+            StringBuilder summary = new StringBuilder("took ").append(Util.getTimeSpanString(duration))
+                    .append(" (p95 ").append(Util.getTimeSpanString(p95));
+            if (average > 0) {
+                long change = Math.round(100.0 * (duration - average) / average);
+                payload.put("durationChange", change);
+                summary.append(", ").append(change >= 0 ? "+" : "").append(change).append('%');
+            }
+            payload.put("durationSummary", summary.append(')').toString());
+            payload.put("failureRate", Math.round(100 * getFailureRate()));
+            payload.put("failureSummary", getFailures() + " of the last " + size + " builds failed");
+        }
+    }
+
+    /**
+     * A job's place in the index and the lock for it.
+     */
+    private static final class Slot {
+        // null until loaded
+        Entry entry;
+    }
+
+    private Slot slot(Job<?, ?> job) {
+        synchronized (slots) {
+            Slot slot = slots.get(job);
+            if (slot == null) {
+                slot = new Slot();
+                slots.put(job, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * The job's results before {@code current}, which is still being completed.
+     */
+    public Entry previous(Run<?, ?> current) {
+        Slot slot = slot(current.getParent());
+        synchronized (slot) {
+            return previous(slot, current);
+        }
+    }
+
+    /**
+     * Called with the slot's lock held.
+     */
+    private Entry previous(Slot slot, Run<?, ?> current) {
+        Job<?, ?> job = current.getParent();
+        if (slot.entry == null) {
+            slot.entry = load(job);
+        }
+        if (slot.entry == null || isStale(slot.entry, current)) {
+            slot.entry = rebuild(current);
+            save(job, slot.entry);
+        }
+        return slot.entry;
+    }
+
+    /**
+     * Whether the index misses completed builds before {@code current}, or has one that is gone. A build
+     * after {@code current} that completed first is expected when builds run concurrently. The build
+     * history is only looked at when the index does not end right before {@code current}.
+     */
+    private static boolean isStale(Entry entry, Run<?, ?> current) {
+        if (entry.getLastNumber() >= current.getNumber() || entry.getLastNumber() == current.getNumber() - 1) {
+            return false;
+        }
+        Run<?, ?> previous = current.getPreviousCompletedBuild();
+        return entry.getLastNumber() != (previous == null ? 0 : previous.getNumber());
+    }
+
+    /**
+     * Adds a completed build to its job's index. A build that completes after a later one only adds to
+     * the statistics, as the last results and the failure streak are those of the latest build.
+     */
+    public void record(Run<?, ?> run) {
+        Job<?, ?> job = run.getParent();
+        Slot slot = slot(job);
+        synchronized (slot) {
+            Entry previous = previous(slot, run);
+            if (run.getNumber() <= previous.getLastNumber()) {
+                slot.entry = previous.late(run.getResult(), run.getDuration());
+            } else {
+                slot.entry = previous.next(run.getNumber(), run.getResult(), run.getDuration());
+            }
+            save(job, slot.entry);
+        }
+    }
+
+    /**
+     * Walks back from the build before {@code current} once, skipping builds that are still running, to
+     * its last success and at least {@link Stats#WINDOW} builds that count for the statistics, and replays
+     * what it found oldest first. Only the numbers, results and durations are kept during the walk.
+     */
+    private Entry rebuild(Run<?, ?> current) {
+        List<Completed> completed = new ArrayList<Completed>();
+        boolean success = false;
+        int counted = 0;
+        int depth = 0;
+        for (Run<?, ?> run = current.getPreviousBuild(); run != null && depth < MAX_REBUILD_DEPTH && !(success && counted >= Stats.WINDOW);
+             run = run.getPreviousBuild(), depth++) {
+            Result result = run.getResult();
+            if (run.isBuilding() || result == null) {
+                continue;
+            }
+            completed.add(new Completed(run.getNumber(), result, run.getDuration()));
+            success |= result == Result.SUCCESS;
+            if (result != Result.ABORTED && result != Result.NOT_BUILT) {
+                counted++;
+            }
+        }
+        Entry entry = EMPTY;
+        for (int i = completed.size() - 1; i >= 0; i--) {
+            Completed run = completed.get(i);
+            entry = entry.next(run.number, run.result, run.durationMillis);
+        }
+        return entry;
+    }
+
+    private static final class Completed {
+        final int number;
+        final Result result;
+        final long durationMillis;
+
+        Completed(int number, Result result, long durationMillis) {
+            this.number = number;
+            this.result = result;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    private static XmlFile file(Job<?, ?> job) {
+        return new XmlFile(new File(job.getRootDir(), FILE_NAME));
+    }
+
+    private static Entry load(Job<?, ?> job) {
+        XmlFile file = file(job);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Entry entry = (Entry) file.read();
+            // written before statistics were kept
+            return entry.getStats() == null ? null : entry;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read " + file + ", rebuilding it", e);
+            return null;
+        }
+    }
+
+    private static void save(Job<?, ?> job, Entry entry) {
+        try {
+            file(job).write(entry);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save Pubu build index for " + job.getFullName(), e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package jenkins.plugins.pubu;
+
+import hudson.scm.ChangeLogSet;
+import hudson.scm.ChangeLogSet.Entry;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything the notifications need from a change set, gathered in a single pass: the authors, the
+ * number of distinct files touched and the first commits. Authors and commits are capped, and the
+ * remainder is reported as "+N more", so a merge of thousands of commits stays cheap to describe.
+ */
+final class ChangeSetSummary {
+
+    static final int DEFAULT_MAX_COMMITS = 50;
+    static final int DEFAULT_MAX_AUTHORS = 20;
+
+    private final Set<String> authors = new LinkedHashSet<String>();
+    private final List<JSONObject> commits = new ArrayList<JSONObject>();
+    private int moreAuthors;
+    private int commitCount;
+    private int fileCount;
+
+    private ChangeSetSummary() {
+    }
+
+    /**
+     * @param changeSet the change set to summarize, or null if none was computed
+     * @param maxCommits how many commits to keep for {@link #getCommits()}, 0 when only the counts are used
+     */
+    @SuppressWarnings("rawtypes")
+    static ChangeSetSummary of(ChangeLogSet changeSet, int maxCommits, int maxAuthors) {
+        ChangeSetSummary summary = new ChangeSetSummary();
+        if (changeSet == null) {
+            return summary;
+        }
+        Set<String> allAuthors = new HashSet<String>();
+        Set<String> files = new HashSet<String>();
+        for (Object o : changeSet) {
+            Entry entry = (Entry) o;
+            summary.commitCount++;
+            String author = entry.getAuthor().getDisplayName();
+            if (allAuthors.add(author)) {
+                if (summary.authors.size() < maxAuthors) {
+                    summary.authors.add(author);
+                } else {
+                    summary.moreAuthors++;
+                }
+            }
+            Collection<String> paths = entry.getAffectedPaths();
+            if (paths != null) {
+                files.addAll(paths);
+            }
+            if (summary.commits.size() < maxCommits) {
+                JSONObject commit = new JSONObject();
+                commit.put("entry", entry.getMsg());
+                commit.put("commit", entry.getCommitId());
+                commit.put("author", author);
+                summary.commits.add(commit);
+            }
+        }
+        summary.fileCount = files.size();
+        return summary;
+    }
+
+    boolean isEmpty() {
+        return commitCount == 0;
+    }
+
+    int getCommitCount() {
+        return commitCount;
+    }
+
+    int getFileCount() {
+        return fileCount;
+    }
+
+    String getAuthors() {
+        String joined = StringUtils.join(authors, ", ");
+        return moreAuthors > 0 ? joined + ", +" + moreAuthors + " more" : joined;
+    }
+
+    /**
+     * The kept commits, followed by a marker entry when some were left out.
+     */
+    JSONArray getCommits() {
+        JSONArray array = new JSONArray();
+        for (JSONObject commit : commits) {
+            array.put(commit);
+        }
+        int more = commitCount - commits.size();
+        if (more > 0) {
+            JSONObject marker = new JSONObject();
+            marker.put("entry", "+" + more + " more");
+            marker.put("more", more);
+            array.put(marker);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,195 @@
+package jenkins.plugins.pubu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker per webhook URL. After a number of consecutive failures within a window the circuit
+ * opens and posts fail fast, leaving the notification to the {@link Outbox}, instead of every build
+ * paying a connect timeout. Once the open period is over a single probe is let through; if it succeeds
+ * the circuit closes again. A probe that never reports back is given up after {@link #PROBE_TIMEOUT},
+ * and the next post probes instead.
+ */
+public final class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final int DEFAULT_FAILURE_WINDOW = 60;
+    static final int DEFAULT_OPEN_DURATION = 30;
+    // well beyond the time a post takes to time out
+    static final long PROBE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final CircuitBreaker INSTANCE = new CircuitBreaker();
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long failureWindow = DEFAULT_FAILURE_WINDOW * 1000L;
+    private volatile long openDuration = DEFAULT_OPEN_DURATION * 1000L;
+
+    private CircuitBreaker() {
+    }
+
+    public static CircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param failureWindow and {@code openDuration} are in seconds
+     */
+    void configure(int failureThreshold, int failureWindow, int openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.failureWindow = failureWindow * 1000L;
+        this.openDuration = openDuration * 1000L;
+    }
+
+    /**
+     * @return false if the endpoint's circuit is open and the post should not be attempted
+     */
+    boolean allow(String url) {
+        return allow(url, System.currentTimeMillis());
+    }
+
+    boolean allow(String url, long now) {
+        return circuit(url).allow(url, now);
+    }
+
+    void success(String url) {
+        Circuit circuit = circuits.get(url);
+        if (circuit != null) {
+            circuit.success(url);
+        }
+    }
+
+    void failure(String url) {
+        circuit(url).failure(url, System.currentTimeMillis());
+    }
+
+    public State getState(String url) {
+        Circuit circuit = circuits.get(url);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * Snapshot of every endpoint seen so far, for the global configuration page.
+     */
+    public List<Status> getStatuses() {
+        List<Status> statuses = new ArrayList<Status>();
+        for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+            Circuit circuit = entry.getValue();
+            synchronized (circuit) {
+                statuses.add(new Status(entry.getKey(), circuit.state, circuit.failures));
+            }
+        }
+        return statuses;
+    }
+
+    private Circuit circuit(String url) {
+        Circuit circuit = circuits.get(url);
+        if (circuit == null) {
+            Circuit created = new Circuit();
+            circuit = circuits.putIfAbsent(url, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    public static final class Status {
+        private final String endpoint;
+        private final State state;
+        private final int failures;
+
+        Status(String endpoint, State state, int failures) {
+            this.endpoint = endpoint;
+            this.state = state;
+            this.failures = failures;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+    }
+
+    private final class Circuit {
+        private volatile State state = State.CLOSED;
+        private int failures;
+        private long firstFailure;
+        private long openedAt;
+        private boolean probing;
+        private long probeStarted;
+
+        synchronized boolean allow(String url, long now) {
+            switch (state) {
+                case OPEN:
+                    if (now - openedAt < openDuration) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probing = true;
+                    probeStarted = now;
+                    logger.info("Pubu endpoint " + PubuMetrics.label(url) + " circuit half-open, sending probe");
+                    return true;
+                case HALF_OPEN:
+                    if (probing && now - probeStarted < PROBE_TIMEOUT) {
+                        return false;
+                    }
+                    probing = true;
+                    probeStarted = now;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized void success(String url) {
+            if (state != State.CLOSED) {
+                logger.info("Pubu endpoint " + PubuMetrics.label(url) + " recovered, circuit closed");
+            }
+            state = State.CLOSED;
+            failures = 0;
+            probing = false;
+        }
+
+        synchronized void failure(String url, long now) {
+            probing = false;
+            if (state == State.HALF_OPEN) {
+                open(url, now);
+                return;
+            }
+            if (failures == 0 || now - firstFailure > failureWindow) {
+                failures = 0;
+                firstFailure = now;
+            }
+            failures++;
+            if (state == State.CLOSED && failures >= failureThreshold) {
+                open(url, now);
+            }
+        }
+
+        private void open(String url, long now) {
+            state = State.OPEN;
+            openedAt = now;
+            logger.warning("Pubu endpoint " + PubuMetrics.label(url) + " failed " + failures + " time(s) in a row, circuit open for "
+                    + openDuration / 1000 + "s");
+        }
+    }
+}
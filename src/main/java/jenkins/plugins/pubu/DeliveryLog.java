@@ -0,0 +1,141 @@
+package jenkins.plugins.pubu;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The most recent delivery attempts, kept in preallocated arrays that are overwritten in a ring, so
+ * recording one only stores references and numbers. Shown on the global configuration page and, for
+ * a single job, by {@link PubuDeliveriesAction}.
+ */
+public final class DeliveryLog {
+
+    static final int CAPACITY = 200;
+
+    /**
+     * Status of an attempt that was not sent because the endpoint's circuit was open.
+     */
+    static final int CIRCUIT_OPEN = -1;
+
+    private static final DeliveryLog INSTANCE = new DeliveryLog();
+
+    private final long[] times = new long[CAPACITY];
+    private final String[] jobs = new String[CAPACITY];
+    private final String[] projects = new String[CAPACITY];
+    private final String[] displays = new String[CAPACITY];
+    private final String[] urls = new String[CAPACITY];
+    private final int[] statuses = new int[CAPACITY];
+    private final int[] attempts = new int[CAPACITY];
+    private final long[] bytes = new long[CAPACITY];
+    private final long[] roundTrips = new long[CAPACITY];
+    private long recorded;
+
+    DeliveryLog() {
+    }
+
+    public static DeliveryLog get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param job     full name of the job the notification is about, or null if it is about none
+     * @param project name shown for the notification, the job's display name or a folder's for digests
+     * @param status  HTTP status, 0 if the request failed without a response or {@link #CIRCUIT_OPEN}
+     * @param attempt 1 for the first attempt, higher for retries from the {@link Outbox}
+     */
+    synchronized void record(String job, String project, String display, String url, int status, int attempt, long size,
+                             long roundTripNanos) {
+        int i = (int) (recorded++ % CAPACITY);
+        times[i] = System.currentTimeMillis();
+        jobs[i] = job;
+        projects[i] = project;
+        displays[i] = display;
+        urls[i] = url;
+        statuses[i] = status;
+        attempts[i] = attempt;
+        bytes[i] = size;
+        roundTrips[i] = roundTripNanos;
+    }
+
+    /**
+     * @param job full name of the job to show deliveries of, or null for all of them
+     * @return the recorded deliveries, newest first
+     */
+    public synchronized List<Delivery> getDeliveries(String job) {
+        int count = (int) Math.min(recorded, CAPACITY);
+        List<Delivery> deliveries = new ArrayList<Delivery>(count);
+        for (int n = 1; n <= count; n++) {
+            int i = (int) ((recorded - n) % CAPACITY);
+            if (job == null || job.equals(jobs[i])) {
+                deliveries.add(new Delivery(times[i], projects[i], displays[i], PubuMetrics.label(urls[i]),
+                        statuses[i], attempts[i], bytes[i], roundTrips[i] / 1000000));
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * One recorded delivery attempt, as shown in the UI.
+     */
+    public static final class Delivery {
+        private final long time;
+        private final String project;
+        private final String display;
+        private final String endpoint;
+        private final int status;
+        private final int attempt;
+        private final long bytes;
+        private final long roundTripMillis;
+
+        Delivery(long time, String project, String display, String endpoint, int status, int attempt, long bytes, long roundTripMillis) {
+            this.time = time;
+            this.project = project;
+            this.display = display;
+            this.endpoint = endpoint;
+            this.status = status;
+            this.attempt = attempt;
+            this.bytes = bytes;
+            this.roundTripMillis = roundTripMillis;
+        }
+
+        public Date getTime() {
+            return new Date(time);
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public String getDisplay() {
+            return display;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public String getStatus() {
+            if (status == CIRCUIT_OPEN) {
+                return "circuit open";
+            }
+            return status == 0 ? "error" : String.valueOf(status);
+        }
+
+        public boolean isDelivered() {
+            return status == 200;
+        }
+
+        public int getAttempt() {
+            return attempt;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getRoundTripMillis() {
+            return roundTripMillis;
+        }
+    }
+}
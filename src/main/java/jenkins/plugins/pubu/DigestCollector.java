@@ -0,0 +1,275 @@
+package jenkins.plugins.pubu;
+
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.plugins.pubu.NotificationDispatcher.Priority;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects build results into one summary per window instead of sending each of them. A summary covers
+ * one job, or the jobs of a folder that notify the same webhooks. Jobs in digest mode always go through
+ * here; other jobs only while they are flapping, that is while their result changed at least the flap
+ * threshold times within the window. The first result of a window schedules the summary, which then
+ * covers everything collected until it is sent.
+ */
+public final class DigestCollector {
+
+    public static final int DEFAULT_WINDOW = 15;
+    public static final int DEFAULT_FLAP_THRESHOLD = 4;
+    private static final int MAX_HISTORIES = 1024;
+
+    private static final DigestCollector INSTANCE = new DigestCollector();
+
+    private final Map<String, Digest> digests = new HashMap<String, Digest>();
+    private final LruCache<String, Deque<Long>> flips = new LruCache<String, Deque<Long>>(MAX_HISTORIES);
+    private ScheduledExecutorService scheduler;
+
+    private DigestCollector() {
+    }
+
+    public static DigestCollector get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Results of one digest key and window.
+     */
+    static final class Digest {
+        // full name of the job, or of the folder followed by a slash
+        final String job;
+        final String label;
+        int failures;
+        int recoveries;
+        int successes;
+        int unstable;
+        int aborted;
+        boolean flapping;
+        Result lastResult;
+        String lastDisplay;
+        String lastLink;
+        String lastDuration;
+        Run<?, ?> lastBuild;
+        NotifierConfig config;
+
+        Digest(String job, String label) {
+            this.job = job;
+            this.label = label;
+        }
+
+        void add(Result result, Result previousResult) {
+            if (result == Result.FAILURE) {
+                failures++;
+            } else if (result == Result.UNSTABLE) {
+                unstable++;
+            } else if (result == Result.ABORTED) {
+                aborted++;
+            } else if (result == Result.SUCCESS) {
+                if (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE) {
+                    recoveries++;
+                } else {
+                    successes++;
+                }
+            }
+            lastResult = result;
+        }
+
+        String summary(int window) {
+            List<String> parts = new ArrayList<String>();
+            count(parts, failures, "failure", "failures");
+            count(parts, unstable, "unstable build", "unstable builds");
+            count(parts, recoveries, "recovery", "recoveries");
+            count(parts, successes, "success", "successes");
+            count(parts, aborted, "aborted build", "aborted builds");
+            StringBuilder summary = new StringBuilder(label).append(": ");
+            for (int i = 0; i < parts.size(); i++) {
+                summary.append(i > 0 ? ", " : "").append(parts.get(i));
+            }
+            summary.append(" in ").append(window).append(" min");
+            if (flapping) {
+                summary.append(" (flapping)");
+            }
+            summary.append("; last: ").append(lastResult).append(' ').append(lastDisplay);
+            return summary.toString();
+        }
+
+        private static void count(List<String> parts, int count, String singular, String plural) {
+            if (count > 0) {
+                parts.add(count + " " + (count == 1 ? singular : plural));
+            }
+        }
+    }
+
+    /**
+     * Records the result change of a completed build and tells whether its job is flapping. Changes
+     * to or from aborted and not built results are ignored.
+     */
+    boolean isFlapping(Run<?, ?> build, Result result, Result previousResult, NotifierConfig config) {
+        int threshold = config.getFlapThreshold();
+        if (threshold <= 0) {
+            return false;
+        }
+        String key = build.getParent().getFullName();
+        long now = System.currentTimeMillis();
+        long since = now - TimeUnit.MINUTES.toMillis(config.getDigestWindow());
+        synchronized (flips) {
+            Deque<Long> history = flips.get(key);
+            if (history == null) {
+                history = new ArrayDeque<Long>();
+                flips.put(key, history);
+            }
+            if (counts(result) && counts(previousResult) && result != previousResult) {
+                history.addLast(now);
+            }
+            while (!history.isEmpty() && history.peekFirst() < since) {
+                history.removeFirst();
+            }
+            return history.size() >= threshold;
+        }
+    }
+
+    private static boolean counts(Result result) {
+        return result != null && result != Result.ABORTED && result != Result.NOT_BUILT;
+    }
+
+    /**
+     * Adds a completed build to the digest of its job or folder, scheduling the digest if it is the
+     * first result of its window. Jobs of a folder that notify different webhooks get a digest each, so
+     * no room sees the results of jobs it is not notified about.
+     */
+    void add(Run<?, ?> build, Result previousResult, boolean flapping, NotifierConfig config) {
+        String job = build.getParent().getFullName();
+        String key = job;
+        String label = build.getParent().getFullDisplayName();
+        if (config.getDigestByFolder()) {
+            ItemGroup<?> parent = build.getParent().getParent();
+            if (parent instanceof Item) {
+                job = ((Item) parent).getFullName() + "/";
+                key = job + "\n" + config.getDestinations();
+                label = ((Item) parent).getFullDisplayName();
+            }
+        }
+        boolean schedule = false;
+        synchronized (digests) {
+            Digest digest = digests.get(key);
+            if (digest == null) {
+                digest = new Digest(job, label);
+                digests.put(key, digest);
+                schedule = true;
+            }
+            digest.add(build.getResult(), previousResult);
+            digest.flapping |= flapping;
+            digest.lastDisplay = build.getDisplayName();
+            digest.lastLink = build.getUrl();
+            digest.lastDuration = build.getDurationString();
+            digest.lastBuild = build;
+            digest.config = config;
+        }
+        if (schedule) {
+            schedule(key, config.getDigestWindow());
+        }
+    }
+
+    private synchronized void schedule(final String key, long minutes) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "Pubu digest"));
+        }
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                flush(key);
+            }
+        }, minutes, TimeUnit.MINUTES);
+    }
+
+    private void flush(String key) {
+        Digest digest;
+        synchronized (digests) {
+            digest = digests.remove(key);
+        }
+        if (digest != null) {
+            send(digest);
+        }
+    }
+
+    private static void send(Digest digest) {
+        NotifierConfig config = digest.config;
+        NotificationDispatcher.get().dispatch(digest.job, config.newSlackServices(digest.failures > 0),
+                payload(digest, config.getDigestWindow()), digest.failures > 0 || digest.recoveries > 0 ? Priority.HIGH : Priority.LOW);
+    }
+
+    /**
+     * Hands a digest to the outbox without posting it, for when Jenkins is stopping: the outbox keeps it
+     * on disk and delivers it on the next start, so an unreachable Pubu cannot hold up the shutdown.
+     */
+    private static void spill(Digest digest) {
+        NotifierConfig config = digest.config;
+        JSONObject payload = payload(digest, config.getDigestWindow());
+        for (SlackService service : config.newSlackServices(digest.failures > 0)) {
+            Outbox.get().offer(service, payload, digest.job);
+        }
+    }
+
+    static JSONObject payload(Digest digest, int window) {
+        JSONObject payload = new JSONObject();
+        payload.put("status", ActiveNotifier.getBuildStatus(digest.lastResult));
+        payload.put("duration", digest.lastDuration);
+        payload.put("project", digest.label);
+        payload.put("display", digest.lastDisplay);
+        payload.put("link", digest.lastLink);
+        payload.put("event", "digest");
+        payload.put("failures", digest.failures);
+        payload.put("unstable", digest.unstable);
+        payload.put("recoveries", digest.recoveries);
+        payload.put("successes", digest.successes);
+        payload.put("aborted", digest.aborted);
+        payload.put("flapping", digest.flapping);
+        payload.put("summary", digest.summary(window));
+        if (digest.lastBuild != null && digest.config.includeTestSummary()) {
+            TestSummary tests = TestSummary.of(digest.lastBuild);
+            if (tests != null) {
+                tests.addTo(payload);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Moves every pending digest to the outbox, so collected results are not lost on shutdown.
+     */
+    void flushAll() {
+        List<Digest> pending;
+        synchronized (digests) {
+            pending = new ArrayList<Digest>(digests.values());
+            digests.clear();
+        }
+        for (Digest digest : pending) {
+            spill(digest);
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.flushAll();
+        synchronized (INSTANCE) {
+            if (INSTANCE.scheduler != null) {
+                INSTANCE.scheduler.shutdownNow();
+                INSTANCE.scheduler = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package jenkins.plugins.pubu;
+
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.json.JSONObject;
+
+/**
+ * A payload serialized once into the exact request body, so it can be sent to several webhooks without
+ * encoding it again. The body is never modified after construction and is shared read-only by every
+ * request built from it.
+ */
+public final class EncodedPayload {
+
+    private final JSONObject source;
+    private final String job;
+    private final byte[] body;
+    private final String contentType;
+    private final String contentEncoding;
+    private final long size;
+
+    EncodedPayload(JSONObject source, String job, byte[] body, String contentType, String contentEncoding, long size) {
+        this.source = source;
+        this.job = job;
+        this.body = body;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.size = size;
+    }
+
+    /**
+     * The (possibly truncated) payload the body was encoded from; must not be modified.
+     */
+    JSONObject getSource() {
+        return source;
+    }
+
+    /**
+     * Full name of the job the payload is about, or null if it is about none.
+     */
+    String getJob() {
+        return job;
+    }
+
+    RequestEntity toRequestEntity() {
+        return new ByteArrayRequestEntity(body, contentType);
+    }
+
+    /**
+     * The request body itself, not a copy; must not be modified.
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return {@code gzip}, or null if the body is not compressed
+     */
+    String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return the uncompressed size of the JSON document, in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    int getLength() {
+        return body.length;
+    }
+}
@@ -0,0 +1,159 @@
+package jenkins.plugins.pubu;
+
+import hudson.ProxyConfiguration;
+import jenkins.model.Jenkins;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Shares one keep-alive {@link HttpClient} per webhook host instead of building a new client,
+ * and with it a new TCP/TLS connection, for every notification.
+ */
+final class HttpClientPool {
+
+    private static final Logger logger = Logger.getLogger(HttpClientPool.class.getName());
+
+    static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    static final int DEFAULT_ACQUIRE_TIMEOUT = 5000;
+    private static final int MAX_CONNECTIONS_PER_HOST = 20;
+
+    private static final HttpClientPool INSTANCE = new HttpClientPool();
+
+    private volatile Clients clients = new Clients(null);
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    private volatile int acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    private HttpClientPool() {
+    }
+
+    static HttpClientPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Timeouts are in milliseconds. Existing clients pick up the new values for their next request.
+     */
+    void configure(int connectTimeout, int socketTimeout, int acquireTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.acquireTimeout = acquireTimeout;
+        for (HttpClient client : clients.byHost.values()) {
+            applyTimeouts(client);
+        }
+    }
+
+    /**
+     * The clients built with one proxy configuration, replaced as a whole when it changes so a client
+     * is never looked up with one proxy and built with another.
+     */
+    private static final class Clients {
+        // identity of the Jenkins proxy configuration the clients were built with
+        final ProxyConfiguration proxy;
+        final ConcurrentMap<String, HttpClient> byHost = new ConcurrentHashMap<String, HttpClient>();
+
+        Clients(ProxyConfiguration proxy) {
+            this.proxy = proxy;
+        }
+    }
+
+    HttpClient clientFor(String url) {
+        Clients clients = refreshProxy();
+        String key = hostKey(url);
+        HttpClient client = clients.byHost.get(key);
+        if (client == null) {
+            HttpClient created = newClient(clients.proxy);
+            client = clients.byHost.putIfAbsent(key, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Jenkins replaces its {@link ProxyConfiguration} instance whenever the proxy settings are saved,
+     * so a reference check is enough to notice a change. The clients built with the old proxy are
+     * replaced and their connection managers shut down, which fails the requests still running on
+     * them; the outbox retries those.
+     */
+    private Clients refreshProxy() {
+        ProxyConfiguration current = currentProxy();
+        Clients clients = this.clients;
+        if (current == clients.proxy) {
+            return clients;
+        }
+        Clients replaced;
+        synchronized (this) {
+            replaced = this.clients;
+            if (current == replaced.proxy) {
+                return replaced;
+            }
+            clients = new Clients(current);
+            this.clients = clients;
+        }
+        for (HttpClient client : replaced.byHost.values()) {
+            ((MultiThreadedHttpConnectionManager) client.getHttpConnectionManager()).shutdown();
+        }
+        return clients;
+    }
+
+    private HttpClient newClient(ProxyConfiguration proxy) {
+        MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(MAX_CONNECTIONS_PER_HOST);
+        params.setStaleCheckingEnabled(true);
+        HttpClient client = new HttpClient(manager);
+        applyTimeouts(client);
+
+        if (proxy != null) {
+            client.getHostConfiguration().setProxy(proxy.name, proxy.port);
+            String username = proxy.getUserName();
+            String password = proxy.getPassword();
+            // Consider it to be passed if username specified. Sufficient?
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
+                client.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(username, password));
+            }
+        }
+        return client;
+    }
+
+    private void applyTimeouts(HttpClient client) {
+        HttpConnectionManagerParams params = client.getHttpConnectionManager().getParams();
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(socketTimeout);
+        client.getParams().setConnectionManagerTimeout(acquireTimeout);
+    }
+
+    private static ProxyConfiguration currentProxy() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins == null ? null : jenkins.proxy;
+    }
+
+    static String hostKey(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() == null) {
+                return url;
+            }
+            return (uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()).toLowerCase(Locale.ENGLISH);
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import java.io.IOException;
+
+/**
+ * Sends with the pooled commons-httpclient clients of {@link HttpClientPool}. The request runs on the
+ * calling thread, so the returned future is always complete.
+ */
+final class HttpClientTransport implements PubuTransport {
+
+    public ListenableFuture<Response> send(String url, EncodedPayload payload) {
+        PostMethod post;
+        try {
+            post = new PostMethod(url);
+        } catch (RuntimeException e) {
+            // an invalid URL
+            return Futures.immediateFailedFuture(e);
+        }
+        try {
+            post.setRequestEntity(payload.toRequestEntity());
+            if (payload.getContentEncoding() != null) {
+                post.setRequestHeader("Content-Encoding", payload.getContentEncoding());
+            }
+            int status = HttpClientPool.get().clientFor(url).executeMethod(post);
+            Header retryAfter = post.getResponseHeader("Retry-After");
+            return Futures.immediateFuture(new Response(status, retryAfter == null ? null : retryAfter.getValue(),
+                    post.getResponseBodyAsString()));
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        } finally {
+            post.releaseConnection();
+        }
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,43 @@
+package jenkins.plugins.pubu;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram in milliseconds. Recording is a bucket search over a small constant
+ * array and two atomic adds; nothing is allocated.
+ */
+final class LatencyHistogram {
+
+    static final long[] BOUNDS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    // the last bucket counts everything above the largest bound
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter sumNanos = new StripedCounter();
+
+    void record(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSumMillis() {
+        return sumNanos.sum() / 1000000.0;
+    }
+
+    /**
+     * Non-cumulative count of the given bucket; bucket {@code BOUNDS.length} is the overflow bucket.
+     */
+    long getBucket(int bucket) {
+        return buckets.get(bucket);
+    }
+}
@@ -0,0 +1,37 @@
+package jenkins.plugins.pubu;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small synchronized least-recently-used cache.
+ */
+final class LruCache<K, V> {
+
+    private final Map<K, V> map;
+
+    LruCache(final int capacity) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+}
@@ -0,0 +1,182 @@
+package jenkins.plugins.pubu;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message template compiled into a flat tree of segments, so rendering a message only appends
+ * literals and looked-up values. Templates use a small subset of Mustache:
+ * <ul>
+ *     <li>{@code {{name}}} inserts a value, or nothing if there is none;</li>
+ *     <li>{@code {{#name}}...{{/name}}} is kept only if the value is set and not false, 0 or empty;</li>
+ *     <li>{@code {{^name}}...{{/name}}} is kept only if it is not.</li>
+ * </ul>
+ * Compiled templates are cached by their source, so every job sharing a template shares its renderer.
+ */
+public final class MessageTemplate {
+
+    private static final int MAX_CACHED = 256;
+
+    private static final LruCache<String, MessageTemplate> cache = new LruCache<String, MessageTemplate>(MAX_CACHED);
+
+    /**
+     * Looks up the values a template refers to.
+     */
+    interface Scope {
+        /**
+         * @return the value, or null if there is none
+         */
+        Object get(String name);
+    }
+
+    private final Segment[] segments;
+
+    private MessageTemplate(Segment[] segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @throws IllegalArgumentException with a message fit for the user if the template is malformed
+     */
+    static MessageTemplate compile(String source) {
+        MessageTemplate template = cache.get(source);
+        if (template == null) {
+            template = new MessageTemplate(parse(source));
+            cache.put(source, template);
+        }
+        return template;
+    }
+
+    String render(Scope scope) {
+        StringBuilder out = new StringBuilder();
+        render(segments, scope, out);
+        return out.toString();
+    }
+
+    private static void render(Segment[] segments, Scope scope, StringBuilder out) {
+        for (Segment segment : segments) {
+            segment.render(scope, out);
+        }
+    }
+
+    private abstract static class Segment {
+        abstract void render(Scope scope, StringBuilder out);
+    }
+
+    private static final class Literal extends Segment {
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        void render(Scope scope, StringBuilder out) {
+            out.append(text);
+        }
+    }
+
+    private static final class Variable extends Segment {
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        void render(Scope scope, StringBuilder out) {
+            Object value = scope.get(name);
+            if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); i++) {
+                    out.append(i > 0 ? ", " : "").append(array.opt(i));
+                }
+            } else if (value != null && value != JSONObject.NULL) {
+                out.append(value);
+            }
+        }
+    }
+
+    private static final class Section extends Segment {
+        private final String name;
+        private final boolean inverted;
+        private final Segment[] body;
+
+        Section(String name, boolean inverted, Segment[] body) {
+            this.name = name;
+            this.inverted = inverted;
+            this.body = body;
+        }
+
+        void render(Scope scope, StringBuilder out) {
+            if (isSet(scope.get(name)) != inverted) {
+                MessageTemplate.render(body, scope, out);
+            }
+        }
+    }
+
+    static boolean isSet(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        } else if (value instanceof JSONArray) {
+            return ((JSONArray) value).length() > 0;
+        }
+        String text = value.toString();
+        return text.length() > 0 && !"false".equals(text);
+    }
+
+    private static Segment[] parse(String source) {
+        List<List<Segment>> stack = new ArrayList<List<Segment>>();
+        List<String> open = new ArrayList<String>();
+        List<Boolean> inverted = new ArrayList<Boolean>();
+        List<Segment> current = new ArrayList<Segment>();
+        int position = 0;
+        while (position < source.length()) {
+            int start = source.indexOf("{{", position);
+            if (start < 0) {
+                current.add(new Literal(source.substring(position)));
+                break;
+            }
+            if (start > position) {
+                current.add(new Literal(source.substring(position, start)));
+            }
+            int end = source.indexOf("}}", start + 2);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed {{ at position " + start);
+            }
+            String tag = source.substring(start + 2, end).trim();
+            position = end + 2;
+            char kind = tag.length() > 0 ? tag.charAt(0) : ' ';
+            String name = kind == '#' || kind == '^' || kind == '/' ? tag.substring(1).trim() : tag;
+            if (name.length() == 0) {
+                throw new IllegalArgumentException("Empty tag at position " + start);
+            }
+            if (kind == '#' || kind == '^') {
+                stack.add(current);
+                open.add(name);
+                inverted.add(kind == '^');
+                current = new ArrayList<Segment>();
+            } else if (kind == '/') {
+                int last = open.size() - 1;
+                if (last < 0 || !open.get(last).equals(name)) {
+                    throw new IllegalArgumentException("Unexpected {{/" + name + "}} at position " + start);
+                }
+                Section section = new Section(name, inverted.remove(last), current.toArray(new Segment[current.size()]));
+                open.remove(last);
+                current = stack.remove(last);
+                current.add(section);
+            } else {
+                current.add(new Variable(name));
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalArgumentException("Unclosed {{#" + open.get(open.size() - 1) + "}}");
+        }
+        return current.toArray(new Segment[current.size()]);
+    }
+}
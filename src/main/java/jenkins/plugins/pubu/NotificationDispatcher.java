@@ -0,0 +1,762 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin-wide dispatcher that moves webhook calls off the build threads.
+ * Notifications are queued in a bounded in-memory queue and published by a small worker pool,
+ * so a slow or hung Pubu endpoint never holds an executor.
+ * <p>
+ * Each job has a serial lane per destination: the job's notifications to one webhook are published one
+ * at a time in the order they were queued, so a short build's start message cannot overtake its
+ * completion, while other webhooks and other jobs are published in parallel, and a slow webhook only
+ * holds up its own lane. Work that prepares a job's notifications runs on the job's own lane, and
+ * notifications the job dispatches while such work is queued wait behind it. A lane exists only
+ * while it has work queued or in flight.
+ * <p>
+ * Lanes with a {@link Priority#HIGH high priority} notification queued are served before the others.
+ * When the queue is full, a low priority notification replaces the last one queued in its lane if that
+ * one is a low priority notification of the same kind, such as an earlier start message, and is shed
+ * otherwise; a high priority one sheds a queued low priority notification to make room, or goes to the
+ * {@link Outbox} if there is none.
+ */
+public final class NotificationDispatcher {
+
+    private static final Logger logger = Logger.getLogger(NotificationDispatcher.class.getName());
+
+    static final int DEFAULT_POOL_SIZE = 2;
+    static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    static final int DEFAULT_SHUTDOWN_TIMEOUT = 30;
+    // joins a job's full name and a destination into the key of their lane; job names cannot contain it
+    private static final char LANE_SEPARATOR = '\n';
+
+    private static final NotificationDispatcher INSTANCE = new NotificationDispatcher();
+
+    /**
+     * How urgent a notification is: failures, recoveries and aborted builds are high, everything
+     * routine, like start messages, successes and commit lists, is low.
+     */
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    // high priority lanes first, then in the order they were queued
+    private static final Comparator<Runnable> BY_PRIORITY = new Comparator<Runnable>() {
+        public int compare(Runnable a, Runnable b) {
+            Queued x = (Queued) a;
+            Queued y = (Queued) b;
+            if (x.rank != y.rank) {
+                return x.rank.compareTo(y.rank);
+            }
+            return x.sequence < y.sequence ? -1 : (x.sequence == y.sequence ? 0 : 1);
+        }
+    };
+
+    private int poolSize = DEFAULT_POOL_SIZE;
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile int shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    private ThreadPoolExecutor executor;
+    private boolean terminated;
+    // hands completion callbacks of deliveries from the HTTP client's threads to the workers
+    private final Executor workers = new Executor() {
+        public void execute(Runnable command) {
+            resume(command);
+        }
+    };
+
+    // the lane the current worker is running a task of
+    private static final ThreadLocal<Lane> currentLane = new ThreadLocal<Lane>();
+    // lanes with tasks queued or running, by job and by job and destination; also guards the lanes'
+    // task queues and backlog
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+    // tasks accepted but not yet started
+    private int backlog;
+    // lanes with tasks queued or running, with or without a key
+    private int liveLanes;
+    // orders tasks and queued lanes
+    private long nextSequence;
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    NotificationDispatcher() {
+    }
+
+    public static NotificationDispatcher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the global settings. A changed pool size is applied in place, and a changed queue capacity
+     * applies to the next notification queued.
+     */
+    synchronized void configure(int poolSize, int queueCapacity, int shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+        if (executor != null && this.poolSize != poolSize) {
+            if (poolSize > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(poolSize);
+                executor.setCorePoolSize(poolSize);
+            } else {
+                executor.setCorePoolSize(poolSize);
+                executor.setMaximumPoolSize(poolSize);
+            }
+        }
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param accepted whether the work was already accepted, such as the next task of a lane or work
+     *                 queued by a running task, which still runs while the dispatcher drains
+     */
+    private synchronized ThreadPoolExecutor executor(boolean accepted) {
+        if (terminated && (!accepted || executor == null)) {
+            throw new RejectedExecutionException("Pubu notifier is shutting down");
+        }
+        if (executor == null) {
+            // bounded by the backlog, which counts every task in the lanes
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(11, BY_PRIORITY),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "Pubu notifier"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Runs work already accepted, such as a delivery that waited for its webhook's turn, on the worker
+     * pool ahead of queued lanes. It is not counted against the queue capacity, and still runs while the
+     * dispatcher drains. Only once the dispatcher has stopped does it run on the calling thread.
+     */
+    void resume(final Runnable task) {
+        Queued resumed = new Queued() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Error running Pubu notification task", e);
+                }
+            }
+        };
+        synchronized (lanes) {
+            resumed.rank = Priority.HIGH;
+            resumed.sequence = nextSequence++;
+        }
+        try {
+            executor(true).execute(resumed);
+        } catch (RejectedExecutionException e) {
+            resumed.run();
+        }
+    }
+
+    /**
+     * @return true if the lane was waiting in the executor's queue and is not anymore
+     */
+    private synchronized boolean unqueue(Lane lane) {
+        return executor != null && executor.getQueue().remove(lane);
+    }
+
+    /**
+     * Like {@link #dispatch(String, List, JSONObject, Priority)} with high priority.
+     */
+    public boolean dispatch(String job, List<? extends SlackService> services, JSONObject payload) {
+        return dispatch(job, services, payload, Priority.HIGH);
+    }
+
+    /**
+     * Queues the payload for every destination and returns immediately. The payload is serialized once
+     * and published on the lane of the job and each destination, so the destinations are called
+     * concurrently; each one that fails is handed to the {@link Outbox} on its own.
+     *
+     * @param job the full name of the job the notification is about, or null for no ordering
+     * @return false if the notification was dropped for at least one destination
+     */
+    public boolean dispatch(String job, List<? extends SlackService> services, JSONObject payload, Priority priority) {
+        return dispatch(job, services, new SharedPayload(job, payload), null, priority);
+    }
+
+    /**
+     * Like {@link #dispatch(String, List, JSONObject)}, with high priority, but returns a future that
+     * completes once every destination was tried, with true for each one that delivered and false for
+     * each one that was dropped or handed to the {@link Outbox} for a later retry.
+     */
+    public ListenableFuture<List<Boolean>> submit(String job, List<? extends SlackService> services, JSONObject payload) {
+        List<SettableFuture<Boolean>> results = new ArrayList<SettableFuture<Boolean>>(services.size());
+        for (int i = 0; i < services.size(); i++) {
+            results.add(SettableFuture.<Boolean>create());
+        }
+        dispatch(job, services, new SharedPayload(job, payload), results, Priority.HIGH);
+        return Futures.<Boolean>allAsList(results);
+    }
+
+    /**
+     * Queues a delivery per destination, or, while work preparing the job's notifications is queued on
+     * its lane, a task there that queues them once that work is done.
+     *
+     * @param results one per service to complete with whether it delivered, or null
+     */
+    private boolean dispatch(final String job, final List<? extends SlackService> services, final SharedPayload payload,
+                             final List<SettableFuture<Boolean>> results, final Priority priority) {
+        if (job != null && !isCurrent(job) && hasLane(job)) {
+            try {
+                execute(job, new Task(new Runnable() {
+                    public void run() {
+                        dispatch(job, services, payload, results, priority);
+                    }
+                }, priority, null, null));
+                return true;
+            } catch (RejectedExecutionException e) {
+                // the job's lane drained meanwhile or the queue is full; queue the deliveries directly
+            }
+        }
+        boolean queued = true;
+        for (int i = 0; i < services.size(); i++) {
+            SettableFuture<Boolean> result = results == null ? null : results.get(i);
+            if (!enqueue(job, services.get(i), payload, result, priority)) {
+                if (result != null) {
+                    result.set(false);
+                }
+                queued = false;
+            }
+        }
+        return queued;
+    }
+
+    private boolean hasLane(String key) {
+        synchronized (lanes) {
+            return lanes.containsKey(key);
+        }
+    }
+
+    private static boolean isCurrent(String key) {
+        Lane current = currentLane.get();
+        return current != null && key.equals(current.key);
+    }
+
+    /**
+     * Runs the work that prepares a notification, such as reading test results from disk, on the worker
+     * pool instead of the calling thread. The task is expected to {@link #dispatch} what it prepares, which
+     * is then published before anything dispatched for the same job after the task was queued. It never
+     * runs on the calling thread: when it is rejected, the caller should dispatch what it can without the
+     * preparation, which a full queue hands to the {@link Outbox} if it is of high priority.
+     *
+     * @param job the full name of the job the notification is about
+     * @return false if the queue is full or the dispatcher is shutting down and the task was dropped
+     */
+    public boolean execute(final Runnable task, String job, Priority priority) {
+        Runnable guarded = new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Error preparing Pubu notification", e);
+                }
+            }
+        };
+        try {
+            execute(job, new Task(guarded, priority, null, null));
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warning("Pubu notification queue is full, not preparing notification for " + job);
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #execute(Runnable, String, Priority)}, but tells what became of the task: the future is
+     * true once the task ran, and false if it was dropped, right away because the queue is full or the
+     * dispatcher is shutting down, or later because the dispatcher stopped before its turn came.
+     */
+    ListenableFuture<Boolean> submit(final Runnable task, String job, Priority priority) {
+        final SettableFuture<Boolean> ran = SettableFuture.create();
+        Runnable guarded = new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Error preparing Pubu notification", e);
+                } finally {
+                    ran.set(true);
+                }
+            }
+        };
+        try {
+            execute(job, new Task(guarded, priority, null, ran));
+        } catch (RejectedExecutionException e) {
+            logger.warning("Pubu notification queue is full, not preparing notification for " + job);
+            ran.set(false);
+        }
+        return ran;
+    }
+
+    private boolean enqueue(String job, final SlackService service, final SharedPayload payload, final SettableFuture<Boolean> result,
+                            Priority priority) {
+        final long enqueued = System.nanoTime();
+        try {
+            execute(job == null ? null : job + LANE_SEPARATOR + destination(service), new Task(new Runnable() {
+                public void run() {
+                    PubuMetrics.get().recordQueueWait(System.nanoTime() - enqueued);
+                    final EncodedPayload encoded;
+                    ListenableFuture<Boolean> delivered;
+                    try {
+                        encoded = payload.get();
+                        delivered = service.publishAsync(encoded);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Error publishing Pubu notification", e);
+                        if (result != null) {
+                            result.set(false);
+                        }
+                        return;
+                    }
+                    Lane lane = currentLane.get();
+                    if (lane != null) {
+                        lane.inFlight.add(delivered);
+                    }
+                    // the outbox writes to disk, so keep that off the HTTP client's threads
+                    Futures.addCallback(delivered, new FutureCallback<Boolean>() {
+                        public void onSuccess(Boolean ok) {
+                            if (!ok) {
+                                Outbox.get().offer(service, encoded.getSource(), encoded.getJob());
+                            }
+                            if (result != null) {
+                                result.set(ok);
+                            }
+                        }
+
+                        public void onFailure(Throwable t) {
+                            if (t instanceof StandardSlackService.RejectedException) {
+                                logger.warning(t.getMessage());
+                            } else {
+                                logger.log(Level.WARNING, "Error publishing Pubu notification", t);
+                            }
+                            if (result != null) {
+                                result.set(false);
+                            }
+                        }
+                    }, workers);
+                }
+            }, priority, payload.kind, result));
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (priority == Priority.HIGH) {
+                logger.warning("Pubu notification queue is full, keeping notification for " + job + " in the outbox");
+                spilled.incrementAndGet();
+                Outbox.get().offer(service, payload.payload, job);
+                if (result != null) {
+                    result.set(false);
+                }
+                return true;
+            }
+            logger.warning("Pubu notification queue is full, dropping notification for " + job);
+            return false;
+        }
+    }
+
+    /**
+     * Identifies the webhook a service posts to; services of other kinds are their own destination.
+     */
+    private static String destination(SlackService service) {
+        if (service instanceof StandardSlackService) {
+            return ((StandardSlackService) service).getHost();
+        }
+        return service.getClass().getName() + "@" + System.identityHashCode(service);
+    }
+
+    /**
+     * The kind of notification a payload is, so a newer one can stand in for an older one of the same
+     * kind: its event, and whether it lists commits.
+     */
+    static String kind(JSONObject payload) {
+        String event = payload.optString("event", null);
+        if (event == null) {
+            return null;
+        }
+        return payload.has("commits") ? event + "+commits" : event;
+    }
+
+    /**
+     * A queued unit of work of a lane.
+     */
+    private static final class Task {
+        final Priority priority;
+        // the kind of notification a delivery is, so a newer one of the kind can replace it; null if none
+        final String kind;
+        Runnable runnable;
+        SettableFuture<Boolean> result;
+        long sequence;
+
+        Task(Runnable runnable, Priority priority, String kind, SettableFuture<Boolean> result) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.kind = kind;
+            this.result = result;
+        }
+
+        void drop() {
+            if (result != null) {
+                result.set(false);
+            }
+        }
+    }
+
+    /**
+     * Queues the task on the lane of the given key, or runs it right away if the current thread is
+     * running a task of that lane. Tasks without a key run in no particular order.
+     */
+    private void execute(String key, Task task) {
+        if (key != null && isCurrent(key)) {
+            task.runnable.run();
+            return;
+        }
+        Lane lane;
+        boolean created = false;
+        synchronized (lanes) {
+            lane = key == null ? null : lanes.get(key);
+            if (backlog >= queueCapacity) {
+                if (task.priority == Priority.LOW) {
+                    if (lane != null && lane.merge(task)) {
+                        merged.incrementAndGet();
+                        return;
+                    }
+                    shed.incrementAndGet();
+                    throw new RejectedExecutionException("Pubu notification queue is full");
+                }
+                if (!shedLowPriority()) {
+                    throw new RejectedExecutionException("Pubu notification queue is full");
+                }
+            }
+            backlog++;
+            task.sequence = nextSequence++;
+            if (lane != null) {
+                lane.tasks.add(task);
+                // a lane waiting behind low priority ones moves up when a high priority task joins it
+                if (task.priority == Priority.LOW || lane.rank == Priority.HIGH || !unqueue(lane)) {
+                    return;
+                }
+            } else {
+                lane = new Lane(key);
+                lane.tasks.add(task);
+                liveLanes++;
+                created = true;
+            }
+            lane.rank(nextSequence++);
+            if (key != null) {
+                lanes.put(key, lane);
+            }
+        }
+        try {
+            executor(currentLane.get() != null).execute(lane);
+        } catch (RejectedExecutionException e) {
+            synchronized (lanes) {
+                // the caller deals with the task it is queuing
+                lane.tasks.remove(task);
+                backlog--;
+                if (!created) {
+                    lane.rank(nextSequence++);
+                }
+            }
+            if (created) {
+                lane.abandon();
+            } else {
+                // a lane taken off the queue to move it up still has the tasks it accepted before
+                lane.requeue();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the oldest queued low priority task to make room for a high priority one.
+     *
+     * @return false if there is none
+     */
+    private boolean shedLowPriority() {
+        Lane oldestLane = null;
+        Task oldest = null;
+        for (Lane lane : lanes.values()) {
+            for (Task queued : lane.tasks) {
+                if (queued.priority == Priority.LOW) {
+                    if (oldest == null || queued.sequence < oldest.sequence) {
+                        oldestLane = lane;
+                        oldest = queued;
+                    }
+                    break;
+                }
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        oldestLane.tasks.remove(oldest);
+        oldest.drop();
+        backlog--;
+        shed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * What the executor's queue holds, in the order of {@link #BY_PRIORITY}.
+     */
+    private abstract static class Queued implements Runnable {
+        // priority and position in the executor's queue, fixed when queued
+        Priority rank;
+        long sequence;
+    }
+
+    /**
+     * Runs the tasks of one key one at a time. A task that starts a non-blocking delivery does not
+     * hold its worker: the lane continues once the delivery completes. After each task the lane goes
+     * to the back of the executor's queue, so a busy project takes turns with the others.
+     */
+    private final class Lane extends Queued {
+        private final String key;
+        private final Deque<Task> tasks = new ArrayDeque<Task>();
+        // deliveries started by the running task, only touched by the thread running it
+        private List<ListenableFuture<?>> inFlight = new ArrayList<ListenableFuture<?>>();
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Called with the lanes lock held, before the lane is queued.
+         */
+        void rank(long sequence) {
+            this.sequence = sequence;
+            rank = Priority.LOW;
+            for (Task task : tasks) {
+                if (task.priority == Priority.HIGH) {
+                    rank = Priority.HIGH;
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Replaces the last queued task if it is a low priority one of the same kind, and drops the
+         * replaced one. Only the last one is replaced so that the lane's order is kept.
+         */
+        boolean merge(Task task) {
+            Task last = tasks.peekLast();
+            if (task.kind == null || last == null || last.priority != Priority.LOW || !task.kind.equals(last.kind)) {
+                return false;
+            }
+            last.drop();
+            last.runnable = task.runnable;
+            last.result = task.result;
+            return true;
+        }
+
+        public void run() {
+            Task task;
+            synchronized (lanes) {
+                task = tasks.poll();
+                if (task != null) {
+                    backlog--;
+                }
+            }
+            // null if its tasks were shed while it was queued
+            if (task != null) {
+                currentLane.set(this);
+                try {
+                    task.runnable.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Error running Pubu notification task", e);
+                } finally {
+                    currentLane.remove();
+                }
+            }
+            if (inFlight.isEmpty()) {
+                next();
+                return;
+            }
+            ListenableFuture<?> done = Futures.successfulAsList(inFlight);
+            inFlight = new ArrayList<ListenableFuture<?>>();
+            // only hands the lane to the executor, so it may run on the HTTP client's thread
+            done.addListener(new Runnable() {
+                public void run() {
+                    next();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        /**
+         * Hands the lane back to the executor if it has more tasks, or retires it.
+         */
+        private void next() {
+            synchronized (lanes) {
+                if (tasks.isEmpty()) {
+                    retire();
+                    return;
+                }
+                rank(nextSequence++);
+            }
+            requeue();
+        }
+
+        /**
+         * Hands the lane back to the executor, which takes it while the dispatcher drains, or abandons
+         * it if the dispatcher has stopped.
+         */
+        void requeue() {
+            try {
+                executor(true).execute(this);
+            } catch (RejectedExecutionException e) {
+                abandon();
+            }
+        }
+
+        /**
+         * Drops the lane's queued tasks and retires it, once the executor will not take it anymore.
+         */
+        void abandon() {
+            synchronized (lanes) {
+                for (Task task : tasks) {
+                    task.drop();
+                }
+                backlog -= tasks.size();
+                tasks.clear();
+                retire();
+            }
+        }
+
+        /**
+         * Called with the lanes lock held.
+         */
+        private void retire() {
+            if (key != null && lanes.get(key) == this) {
+                lanes.remove(key);
+            }
+            if (--liveLanes == 0) {
+                lanes.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Encodes the payload on first use and hands the same bytes to every destination after that.
+     */
+    private static final class SharedPayload {
+        private final String job;
+        private final JSONObject payload;
+        private final String kind;
+        private EncodedPayload encoded;
+
+        SharedPayload(String job, JSONObject payload) {
+            this.job = job;
+            this.payload = payload;
+            this.kind = kind(payload);
+        }
+
+        synchronized EncodedPayload get() {
+            if (encoded == null) {
+                encoded = PayloadEncoder.get().encode(payload, job);
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * @return low priority notifications dropped because the queue was full
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * @return low priority notifications that replaced an older one of the same kind still queued, because the queue was full
+     */
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * @return high priority notifications handed to the outbox because the queue was full
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueSize() {
+        synchronized (lanes) {
+            return backlog;
+        }
+    }
+
+    public synchronized int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting notifications and gives queued ones the configured time to go out. Work they
+     * queue themselves, like the next task of a lane or a delivery waiting for its webhook's turn, is
+     * still accepted meanwhile; what is left after that is dropped.
+     */
+    void drain() throws InterruptedException {
+        ThreadPoolExecutor current;
+        synchronized (this) {
+            terminated = true;
+            current = executor;
+        }
+        if (current == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(shutdownTimeout);
+        int dropped;
+        synchronized (lanes) {
+            while (liveLanes > 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                lanes.wait(wait);
+            }
+            dropped = backlog;
+        }
+        synchronized (this) {
+            executor = null;
+        }
+        for (Runnable queued : current.shutdownNow()) {
+            if (queued instanceof Lane) {
+                // completes the futures of the tasks it drops
+                ((Lane) queued).abandon();
+            }
+        }
+        if (dropped > 0) {
+            logger.warning("Pubu notifier did not drain within " + shutdownTimeout + "s, dropped " + dropped + " notification(s)");
+        }
+    }
+
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        INSTANCE.drain();
+    }
+}
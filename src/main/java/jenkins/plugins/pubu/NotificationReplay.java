@@ -0,0 +1,385 @@
+package jenkins.plugins.pubu;
+
+import hudson.init.Terminator;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Re-sends the completion notifications of a range of builds, for instance those missed during a Pubu
+ * outage. Replays run one at a time on their own thread, at a limited number of builds per second, and
+ * hold back while the live notification queue is more than half full; their notifications are low
+ * priority, so live ones always go first.
+ */
+public final class NotificationReplay {
+
+    private static final Logger logger = Logger.getLogger(NotificationReplay.class.getName());
+
+    public static final int DEFAULT_RATE = 2;
+    private static final int MAX_KEPT = 20;
+    private static final long BACKOFF_MILLIS = 1000;
+    // how far back the result before the first replayed build is looked for
+    private static final int MAX_LOOKBACK = 50;
+
+    private static final NotificationReplay INSTANCE = new NotificationReplay();
+
+    // newest first, guarded by this
+    private final Deque<Replay> replays = new ArrayDeque<Replay>();
+    private int nextId = 1;
+    private ExecutorService executor;
+
+    private NotificationReplay() {
+    }
+
+    public static NotificationReplay get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds selected by number and time, each bound inclusive.
+     */
+    static final class Range {
+        final int fromNumber;
+        final int toNumber;
+        final long since;
+        final long until;
+
+        /**
+         * @param fromNumber 0 for no lower bound
+         * @param toNumber   {@link Integer#MAX_VALUE} for no upper bound
+         * @param since      0 for no lower bound
+         * @param until      {@link Long#MAX_VALUE} for no upper bound
+         */
+        Range(int fromNumber, int toNumber, long since, long until) {
+            this.fromNumber = fromNumber;
+            this.toNumber = toNumber;
+            this.since = since;
+            this.until = until;
+        }
+
+        boolean isBounded() {
+            return fromNumber > 0 || toNumber < Integer.MAX_VALUE || since > 0 || until < Long.MAX_VALUE;
+        }
+
+        boolean notAfter(AbstractBuild<?, ?> build) {
+            return build.getNumber() <= toNumber && build.getTimeInMillis() <= until;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (fromNumber > 0 || toNumber < Integer.MAX_VALUE) {
+                text.append('#').append(fromNumber > 0 ? fromNumber : 1).append(" to ")
+                        .append(toNumber < Integer.MAX_VALUE ? "#" + toNumber : "last");
+            }
+            if (since > 0) {
+                text.append(text.length() > 0 ? ", " : "").append("since ").append(new Date(since));
+            }
+            if (until < Long.MAX_VALUE) {
+                text.append(text.length() > 0 ? ", " : "").append("until ").append(new Date(until));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * One replay and its progress.
+     */
+    public static final class Replay implements Runnable {
+
+        public enum State {
+            QUEUED, RUNNING, DONE, CANCELLED, FAILED
+        }
+
+        private final int id;
+        // full name of the job the replay was started from, or null if started globally
+        private final String scope;
+        private final String description;
+        @SuppressWarnings("rawtypes")
+        private final List<AbstractProject> jobs;
+        private final Range range;
+        private final int rate;
+        private final Date created = new Date();
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelled;
+        // only written by the replay thread
+        private volatile int scanned;
+        private volatile int sent;
+        private volatile String current;
+        private long nextSend;
+        private volatile Future<?> future;
+
+        @SuppressWarnings("rawtypes")
+        Replay(int id, String scope, String description, List<AbstractProject> jobs, Range range, int rate) {
+            this.id = id;
+            this.scope = scope;
+            this.description = description;
+            this.jobs = jobs;
+            this.range = range;
+            this.rate = rate;
+        }
+
+        @SuppressWarnings("rawtypes")
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            state = State.RUNNING;
+            try {
+                for (AbstractProject project : jobs) {
+                    AbstractProject<?, ?> job = project;
+                    FineGrainedNotifier notifier = NotifierCache.get().getNotifier(job);
+                    if (notifier instanceof ActiveNotifier) {
+                        replay((ActiveNotifier) notifier, job);
+                    }
+                    if (cancelled) {
+                        break;
+                    }
+                }
+                state = cancelled ? State.CANCELLED : State.DONE;
+            } catch (InterruptedException e) {
+                state = State.CANCELLED;
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Pubu replay of " + description + " failed", e);
+                state = State.FAILED;
+            } finally {
+                current = null;
+            }
+        }
+
+        private void replay(ActiveNotifier notifier, AbstractProject<?, ?> job) throws InterruptedException {
+            Result previousResult = null;
+            boolean first = true;
+            for (Iterator<AbstractBuild<?, ?>> it = builds(job, range); it.hasNext() && !cancelled; ) {
+                AbstractBuild<?, ?> build = it.next();
+                if (first) {
+                    previousResult = previousResult(build);
+                    first = false;
+                }
+                scanned++;
+                Result result = build.getResult();
+                if (build.isBuilding() || result == null) {
+                    continue;
+                }
+                current = build.getFullDisplayName();
+                throttle();
+                if (notifier.replay(build, previousResult)) {
+                    sent++;
+                }
+                if (result != Result.ABORTED) {
+                    previousResult = result;
+                }
+            }
+        }
+
+        private void throttle() throws InterruptedException {
+            long wait = nextSend - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            NotificationDispatcher dispatcher = NotificationDispatcher.get();
+            while (dispatcher.getQueueSize() > dispatcher.getQueueCapacity() / 2) {
+                Thread.sleep(BACKOFF_MILLIS);
+            }
+            nextSend = System.currentTimeMillis() + 1000L / rate;
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (state == State.QUEUED) {
+                state = State.CANCELLED;
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        String getScope() {
+            return scope;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isActive() {
+            return state == State.QUEUED || state == State.RUNNING;
+        }
+
+        /**
+         * @return builds looked at so far
+         */
+        public int getScanned() {
+            return scanned;
+        }
+
+        /**
+         * @return builds whose notification was sent again so far
+         */
+        public int getSent() {
+            return sent;
+        }
+
+        /**
+         * @return the build being replayed, or null
+         */
+        public String getCurrent() {
+            return current;
+        }
+    }
+
+    /**
+     * Queues a replay of the builds of {@code jobs} in {@code range}; jobs without Pubu notifications are skipped.
+     *
+     * @param scope full name of the job the replay is started from, or null if started globally
+     * @param rate  builds per second
+     */
+    @SuppressWarnings("rawtypes")
+    synchronized Replay start(String scope, String description, List<AbstractProject> jobs, Range range, int rate) {
+        Replay replay = new Replay(nextId++, scope, description, jobs, range, rate);
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "Pubu replay"));
+        }
+        replay.future = executor.submit(replay);
+        replays.addFirst(replay);
+        if (replays.size() > MAX_KEPT) {
+            for (Iterator<Replay> it = replays.descendingIterator(); it.hasNext() && replays.size() > MAX_KEPT; ) {
+                if (!it.next().isActive()) {
+                    it.remove();
+                }
+            }
+        }
+        logger.info("Queued Pubu replay " + replay.getId() + " of " + description);
+        return replay;
+    }
+
+    /**
+     * @param scope full name of a job for the replays started from it, or null for all of them
+     */
+    public synchronized List<Replay> getReplays(String scope) {
+        List<Replay> list = new ArrayList<Replay>();
+        for (Replay replay : replays) {
+            if (scope == null || scope.equals(replay.getScope())) {
+                list.add(replay);
+            }
+        }
+        return list;
+    }
+
+    synchronized Replay getReplay(int id) {
+        for (Replay replay : replays) {
+            if (replay.getId() == id) {
+                return replay;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The job's builds in the range, oldest first. Builds are loaded one at a time as the walk reaches
+     * them and only the current one is referenced, so a job's history is never loaded as a whole.
+     */
+    static Iterator<AbstractBuild<?, ?>> builds(AbstractProject<?, ?> job, final Range range) {
+        final AbstractBuild<?, ?> first = first(job, range);
+        return new Iterator<AbstractBuild<?, ?>>() {
+            private AbstractBuild<?, ?> next = first;
+
+            public boolean hasNext() {
+                return next != null && range.notAfter(next);
+            }
+
+            public AbstractBuild<?, ?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                AbstractBuild<?, ?> build = next;
+                next = build.getNextBuild();
+                return build;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static AbstractBuild<?, ?> first(AbstractProject<?, ?> job, Range range) {
+        AbstractBuild<?, ?> first = range.fromNumber > 0 ? job.getNearestBuild(range.fromNumber) : job.getFirstBuild();
+        if (first == null || range.since <= 0) {
+            return first;
+        }
+        AbstractBuild<?, ?> last = job.getLastBuild();
+        if (last == null || last.getTimeInMillis() < range.since) {
+            return null;
+        }
+        // builds start in the order of their numbers, so search the numbers for the oldest one in the
+        // window, loading one build per step instead of every build newer than it
+        int low = first.getNumber();
+        int high = last.getNumber();
+        while (low < high) {
+            int middle = low + (high - low) / 2;
+            AbstractBuild<?, ?> build = job.getNearestBuild(middle);
+            if (build.getTimeInMillis() >= range.since) {
+                high = middle;
+            } else {
+                low = build.getNumber() + 1;
+            }
+        }
+        return job.getNearestBuild(low);
+    }
+
+    /**
+     * The result of the last build before {@code build} that was not aborted, or null if there is none.
+     */
+    private static Result previousResult(AbstractBuild<?, ?> build) {
+        int depth = 0;
+        for (AbstractBuild<?, ?> previous = build.getPreviousBuild(); previous != null && depth < MAX_LOOKBACK;
+             previous = previous.getPreviousBuild(), depth++) {
+            Result result = previous.getResult();
+            if (!previous.isBuilding() && result != null && result != Result.ABORTED) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Terminator
+    public static void shutdown() {
+        synchronized (INSTANCE) {
+            for (Replay replay : INSTANCE.replays) {
+                replay.cancel();
+            }
+            if (INSTANCE.executor != null) {
+                INSTANCE.executor.shutdownNow();
+                INSTANCE.executor = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package jenkins.plugins.pubu;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.tasks.Publisher;
+import jenkins.model.Jenkins;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Caches the notifier resolved for each job, so the listener hot path is a single lock-free map lookup
+ * instead of a scan of the job's publishers. Entries are dropped when the job is saved, renamed or
+ * deleted, and all of them when the global configuration is saved.
+ */
+public final class NotifierCache {
+
+    private static final Logger logger = Logger.getLogger(NotifierCache.class.getName());
+
+    private static final FineGrainedNotifier DISABLED = new DisabledNotifier();
+
+    private static final NotifierCache INSTANCE = new NotifierCache();
+
+    private final ConcurrentMap<String, FineGrainedNotifier> notifiers = new ConcurrentHashMap<String, FineGrainedNotifier>();
+    // bumped on every invalidation, so a resolution that raced with a save does not stay cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private NotifierCache() {
+    }
+
+    public static NotifierCache get() {
+        return INSTANCE;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public FineGrainedNotifier getNotifier(Job project) {
+        String key = project.getFullName();
+        FineGrainedNotifier notifier = notifiers.get(key);
+        if (notifier == null) {
+            long seen = generation.get();
+            notifier = resolve(project);
+            FineGrainedNotifier cached = notifiers.putIfAbsent(key, notifier);
+            if (cached == null && generation.get() != seen) {
+                // invalidated while resolving: the removal may have run before the put, so undo it
+                notifiers.remove(key, notifier);
+            }
+        }
+        return notifier;
+    }
+
+    /**
+     * The job's effective configuration, or null if Pubu notifications are not enabled for it.
+     */
+    @SuppressWarnings("rawtypes")
+    public NotifierConfig getConfig(Job project) {
+        FineGrainedNotifier notifier = getNotifier(project);
+        return notifier instanceof ActiveNotifier ? ((ActiveNotifier) notifier).getConfig() : null;
+    }
+
+    void invalidate(String fullName) {
+        generation.incrementAndGet();
+        notifiers.remove(fullName);
+    }
+
+    void invalidateAll() {
+        generation.incrementAndGet();
+        notifiers.clear();
+    }
+
+    /**
+     * Freestyle jobs are notified if they have the Pubu publisher and job property, other jobs, such as
+     * Pipelines, which have no publishers, if they have the job property.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static FineGrainedNotifier resolve(Job project) {
+        SlackNotifier.SlackJobProperty property = (SlackNotifier.SlackJobProperty) project.getProperty(SlackNotifier.SlackJobProperty.class);
+        if (!(project instanceof AbstractProject)) {
+            return property == null ? DISABLED
+                    : new ActiveNotifier(new NotifierConfig(Jenkins.getInstance().getDescriptorByType(SlackNotifier.DescriptorImpl.class), property));
+        }
+        SlackNotifier publisher = (SlackNotifier) ((AbstractProject) project).getPublishersList().get(SlackNotifier.class);
+        if (publisher == null) {
+            return DISABLED;
+        }
+        if (property == null) {
+            logger.warning("Project " + project.getName() + " has no Pubu configuration.");
+            return DISABLED;
+        }
+        return new ActiveNotifier(new NotifierConfig(publisher.getDescriptor(), property));
+    }
+
+    @Extension
+    public static final class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Job) {
+                INSTANCE.invalidate(((Job<?, ?>) o).getFullName());
+            } else if (o instanceof SlackNotifier.DescriptorImpl) {
+                INSTANCE.invalidateAll();
+            }
+        }
+    }
+
+    @Extension
+    public static final class JobListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            INSTANCE.invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            INSTANCE.invalidate(oldFullName);
+            INSTANCE.invalidate(newFullName);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package jenkins.plugins.pubu;
+
+import hudson.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of a job's effective Pubu settings: the global descriptor merged with the
+ * job's {@link SlackNotifier.SlackJobProperty}. Snapshots are built once per configuration change by
+ * {@link NotifierCache} and shared by every build of the job.
+ */
+public final class NotifierConfig {
+
+    private static final Logger logger = Logger.getLogger(NotifierConfig.class.getName());
+
+    private final String teamDomain;
+    private final List<String> webhooks;
+    private final List<String> failureWebhooks;
+    private final boolean startNotification;
+    private final boolean notifySuccess;
+    private final boolean notifyAborted;
+    private final boolean notifyNotBuilt;
+    private final boolean notifyUnstable;
+    private final boolean notifyFailure;
+    private final boolean notifyBackToNormal;
+    private final boolean notifyRepeatedFailure;
+    private final boolean includeTestSummary;
+    private final boolean showCommitList;
+    private final boolean coalesceEvents;
+    private final int maxCommits;
+    private final int maxAuthors;
+    private final int maxUpstreamDepth;
+    private final boolean digest;
+    private final boolean digestByFolder;
+    private final int digestWindow;
+    private final int flapThreshold;
+    private final MessageTemplate messageTemplate;
+
+    NotifierConfig(SlackNotifier.DescriptorImpl global, SlackNotifier.SlackJobProperty property) {
+        String jobTeamDomain = Util.fixEmpty(property.getTeamDomain());
+        this.teamDomain = jobTeamDomain != null ? jobTeamDomain : global.getTeamDomain();
+        Set<String> urls = splitWebhooks(teamDomain);
+        this.webhooks = Collections.unmodifiableList(new ArrayList<String>(urls));
+        Set<String> failureUrls = splitWebhooks(global.getFailureTeamDomain());
+        failureUrls.removeAll(urls);
+        this.failureWebhooks = Collections.unmodifiableList(new ArrayList<String>(failureUrls));
+        this.startNotification = property.getStartNotification();
+        this.notifySuccess = property.getNotifySuccess();
+        this.notifyAborted = property.getNotifyAborted();
+        this.notifyNotBuilt = property.getNotifyNotBuilt();
+        this.notifyUnstable = property.getNotifyUnstable();
+        this.notifyFailure = property.getNotifyFailure();
+        this.notifyBackToNormal = property.getNotifyBackToNormal();
+        this.notifyRepeatedFailure = property.getNotifyRepeatedFailure();
+        this.includeTestSummary = property.includeTestSummary();
+        this.showCommitList = property.getShowCommitList();
+        this.coalesceEvents = property.getCoalesceEvents();
+        this.maxCommits = global.getMaxCommits();
+        this.maxAuthors = global.getMaxAuthors();
+        this.maxUpstreamDepth = global.getMaxUpstreamDepth();
+        this.digest = property.getDigest() || global.getDigestAll();
+        this.digestByFolder = global.getDigestByFolder();
+        this.digestWindow = global.getDigestWindow();
+        this.flapThreshold = global.getFlapThreshold();
+        String template = Util.fixEmpty(property.getMessageTemplate());
+        this.messageTemplate = compile(template != null ? template : Util.fixEmpty(global.getMessageTemplate()));
+    }
+
+    private static MessageTemplate compile(String template) {
+        if (template == null) {
+            return null;
+        }
+        try {
+            return MessageTemplate.compile(template);
+        } catch (IllegalArgumentException e) {
+            // only possible if the configuration was edited on disk, as it is checked when saved
+            logger.warning("Ignoring invalid Pubu message template: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Identifies the webhooks this configuration notifies, equal for configurations with the same ones.
+     */
+    String getDestinations() {
+        return webhooks + " " + failureWebhooks;
+    }
+
+    /**
+     * One service per destination of an event: every webhook, plus the failure webhooks for failures.
+     */
+    public List<SlackService> newSlackServices(boolean failure) {
+        List<SlackService> services = new ArrayList<SlackService>(webhooks.size() + failureWebhooks.size());
+        for (String url : webhooks) {
+            services.add(new StandardSlackService(url));
+        }
+        if (failure) {
+            for (String url : failureWebhooks) {
+                services.add(new StandardSlackService(url));
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Webhook URLs separated by whitespace or commas, without duplicates, in the order given.
+     */
+    static Set<String> splitWebhooks(String value) {
+        Set<String> urls = new LinkedHashSet<String>();
+        if (value != null) {
+            for (String url : value.split("[\\s,]+")) {
+                if (url.length() > 0) {
+                    urls.add(url);
+                }
+            }
+        }
+        return urls;
+    }
+
+    public String getTeamDomain() {
+        return teamDomain;
+    }
+
+    public List<String> getWebhooks() {
+        return webhooks;
+    }
+
+    public List<String> getFailureWebhooks() {
+        return failureWebhooks;
+    }
+
+    public boolean getStartNotification() {
+        return startNotification;
+    }
+
+    public boolean getNotifySuccess() {
+        return notifySuccess;
+    }
+
+    public boolean getNotifyAborted() {
+        return notifyAborted;
+    }
+
+    public boolean getNotifyNotBuilt() {
+        return notifyNotBuilt;
+    }
+
+    public boolean getNotifyUnstable() {
+        return notifyUnstable;
+    }
+
+    public boolean getNotifyFailure() {
+        return notifyFailure;
+    }
+
+    public boolean getNotifyBackToNormal() {
+        return notifyBackToNormal;
+    }
+
+    public boolean getNotifyRepeatedFailure() {
+        return notifyRepeatedFailure;
+    }
+
+    public boolean includeTestSummary() {
+        return includeTestSummary;
+    }
+
+    public boolean getShowCommitList() {
+        return showCommitList;
+    }
+
+    public boolean getCoalesceEvents() {
+        return coalesceEvents;
+    }
+
+    public int getMaxCommits() {
+        return maxCommits;
+    }
+
+    public int getMaxAuthors() {
+        return maxAuthors;
+    }
+
+    public int getMaxUpstreamDepth() {
+        return maxUpstreamDepth;
+    }
+
+    /**
+     * @return the compiled message template, or null if neither the job nor the global settings have one
+     */
+    public MessageTemplate getMessageTemplate() {
+        return messageTemplate;
+    }
+
+    public boolean getDigest() {
+        return digest;
+    }
+
+    public boolean getDigestByFolder() {
+        return digestByFolder;
+    }
+
+    /**
+     * @return the digest window, in minutes
+     */
+    public int getDigestWindow() {
+        return digestWindow;
+    }
+
+    /**
+     * @return result changes within the digest window after which a job counts as flapping, 0 if never
+     */
+    public int getFlapThreshold() {
+        return flapThreshold;
+    }
+}
@@ -0,0 +1,436 @@
+package jenkins.plugins.pubu;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.apache.commons.httpclient.HttpStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable store for notifications that could not be delivered.
+ * <p>
+ * Failed payloads are appended to a segmented journal under {@code JENKINS_HOME/pubu-outbox} and retried
+ * with exponential backoff and jitter. Each segment holds {@code A} (added) and {@code D} (done) records;
+ * whatever is still pending when Jenkins stops is replayed on the next start. Segments are deleted oldest
+ * first once nothing in them is pending, and live entries of old segments are moved forward when too many
+ * segments pile up, so the journal stays small.
+ */
+public final class Outbox {
+
+    private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+    static final String DIRECTORY = "pubu-outbox";
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+    static final int MAX_SEGMENTS = 4;
+    static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(5);
+    static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(10);
+    private static final long MAX_AGE = TimeUnit.HOURS.toMillis(24);
+
+    private static final Outbox INSTANCE = new Outbox(null);
+
+    private final Map<Long, Pending> pending = new LinkedHashMap<Long, Pending>();
+    private final TreeMap<Long, Integer> liveBySegment = new TreeMap<Long, Integer>();
+    private final Random random = new Random();
+    // in bytes
+    private final long segmentSize;
+    private final long initialBackoff;
+    private final long maxAge;
+    private File directory;
+    private ScheduledExecutorService scheduler;
+    private boolean opened;
+    private long nextId;
+    private long activeSegment;
+    private long activeSize;
+    private FileOutputStream out;
+
+    private static final class Pending {
+        final long id;
+        final String url;
+        final String payload;
+        // full name of the job the payload is about, or null
+        final String job;
+        final long created;
+        long segment;
+        int attempts;
+
+        Pending(long id, String url, String payload, String job, long created) {
+            this.id = id;
+            this.url = url;
+            this.payload = payload;
+            this.job = job;
+            this.created = created;
+        }
+
+        /**
+         * The journal record adding this entry. The job comes last and is optional, as the payload holds
+         * no tabs, so journals written before it was recorded still read.
+         */
+        String record() {
+            return "A\t" + id + "\t" + created + "\t" + url + "\t" + payload + (job == null ? "" : "\t" + job);
+        }
+    }
+
+    Outbox(File directory) {
+        this(directory, SEGMENT_SIZE, INITIAL_BACKOFF, MAX_AGE);
+    }
+
+    Outbox(File directory, long segmentSize, long initialBackoff, long maxAge) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.initialBackoff = initialBackoff;
+        this.maxAge = maxAge;
+    }
+
+    public static Outbox get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Points an outbox that has not been opened yet at another directory, for use outside of Jenkins.
+     */
+    synchronized void setDirectory(File directory) {
+        if (!opened) {
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * Keeps a payload that the given service failed to deliver, so it can be retried later.
+     *
+     * @param job full name of the job the payload is about, or null if it is about none
+     */
+    void offer(SlackService service, JSONObject payload, String job) {
+        if (service instanceof StandardSlackService) {
+            add(((StandardSlackService) service).getHost(), payload.toString(), job);
+        }
+    }
+
+    synchronized boolean add(String url, String payload, String job) {
+        if (!open()) {
+            logger.warning("Pubu outbox is not available, notification to " + url + " is lost");
+            return false;
+        }
+        Pending entry = new Pending(nextId++, url, payload, job, System.currentTimeMillis());
+        try {
+            append(entry.record(), true);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write Pubu outbox journal", e);
+            return false;
+        }
+        track(entry);
+        schedule(entry, backoff(0, initialBackoff, random));
+        return true;
+    }
+
+    public synchronized int getPendingCount() {
+        return open() ? pending.size() : 0;
+    }
+
+    private void retry(long id) {
+        Pending entry;
+        synchronized (this) {
+            entry = pending.get(id);
+        }
+        if (entry == null) {
+            return;
+        }
+        // the first attempt was made before the entry was added
+        int attempt = entry.attempts + 2;
+        int status;
+        try {
+            status = new StandardSlackService(entry.url).deliver(PayloadEncoder.get().encode(new JSONObject(entry.payload), entry.job), attempt);
+        } catch (JSONException e) {
+            logger.warning("Dropping unreadable Pubu outbox entry " + entry.id);
+            synchronized (this) {
+                complete(entry);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (status == HttpStatus.SC_OK) {
+                logger.fine("Delivered Pubu notification from outbox after " + attempt + " attempts");
+                complete(entry);
+            } else if (StandardSlackService.isRejected(status)) {
+                logger.warning("Pubu rejected notification to " + entry.url + " with status " + status + ", dropping it");
+                complete(entry);
+            } else if (System.currentTimeMillis() - entry.created > maxAge) {
+                logger.severe("Giving up on Pubu notification to " + entry.url + " after " + attempt + " attempts");
+                complete(entry);
+            } else {
+                entry.attempts++;
+                schedule(entry, backoff(entry.attempts, initialBackoff, random));
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter, capped at {@link #MAX_BACKOFF}.
+     */
+    static long backoff(int attempts, long initialBackoff, Random random) {
+        long delay = initialBackoff << Math.min(attempts, 16);
+        if (delay <= 0 || delay > MAX_BACKOFF) {
+            delay = MAX_BACKOFF;
+        }
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void schedule(final Pending entry, long delay) {
+        try {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        retry(entry.id);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Error retrying Pubu notification", e);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.fine("Pubu outbox is shutting down, entry " + entry.id + " will be replayed on restart");
+        }
+    }
+
+    private void track(Pending entry) {
+        entry.segment = activeSegment;
+        pending.put(entry.id, entry);
+        Integer live = liveBySegment.get(activeSegment);
+        liveBySegment.put(activeSegment, live == null ? 1 : live + 1);
+    }
+
+    private void complete(Pending entry) {
+        if (pending.remove(entry.id) == null) {
+            return;
+        }
+        untrack(entry);
+        try {
+            append("D\t" + entry.id, false);
+            compact();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write Pubu outbox journal", e);
+        }
+    }
+
+    private void untrack(Pending entry) {
+        Integer live = liveBySegment.get(entry.segment);
+        if (live != null) {
+            liveBySegment.put(entry.segment, live - 1);
+        }
+    }
+
+    /**
+     * Deletes the oldest segments while nothing in them is pending. Done records always live in the same
+     * or a later segment than the entry they complete, so deleting strictly from the front never resurrects
+     * a completed entry. When too many segments remain, the live entries of the oldest one are re-appended
+     * to the active segment so it can go too.
+     */
+    private void compact() throws IOException {
+        if (liveBySegment.size() > MAX_SEGMENTS) {
+            long oldest = liveBySegment.firstKey();
+            for (Pending entry : new ArrayList<Pending>(pending.values())) {
+                if (entry.segment == oldest) {
+                    append(entry.record(), false);
+                    untrack(entry);
+                    track(entry);
+                }
+            }
+        }
+        while (liveBySegment.size() > 1) {
+            Map.Entry<Long, Integer> oldest = liveBySegment.firstEntry();
+            if (oldest.getValue() > 0 || oldest.getKey() == activeSegment) {
+                break;
+            }
+            liveBySegment.remove(oldest.getKey());
+            File segment = segmentFile(oldest.getKey());
+            if (!segment.delete() && segment.exists()) {
+                logger.warning("Failed to delete Pubu outbox segment " + segment);
+            }
+        }
+    }
+
+    private void append(String record, boolean sync) throws IOException {
+        if (out == null || activeSize > segmentSize) {
+            roll();
+        }
+        byte[] line = (record + "\n").getBytes("UTF-8");
+        out.write(line);
+        if (sync) {
+            out.getFD().sync();
+        }
+        activeSize += line.length;
+    }
+
+    private void roll() throws IOException {
+        closeWriter();
+        if (activeSize > segmentSize) {
+            activeSegment++;
+            activeSize = 0;
+        }
+        if (!liveBySegment.containsKey(activeSegment)) {
+            liveBySegment.put(activeSegment, 0);
+        }
+        File file = segmentFile(activeSegment);
+        activeSize = file.length();
+        out = new FileOutputStream(file, true);
+    }
+
+    private void closeWriter() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close Pubu outbox segment", e);
+            }
+            out = null;
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("segment-%08d.log", segment));
+    }
+
+    /**
+     * Opens the journal on first use and replays whatever a previous run left behind.
+     */
+    private boolean open() {
+        if (opened) {
+            return true;
+        }
+        if (directory == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null) {
+                return false;
+            }
+            directory = new File(jenkins.getRootDir(), DIRECTORY);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warning("Failed to create Pubu outbox directory " + directory);
+            return false;
+        }
+        opened = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "Pubu outbox"));
+        replay();
+        return true;
+    }
+
+    private void replay() {
+        File[] files = directory.listFiles();
+        List<Long> segments = new ArrayList<Long>();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.startsWith("segment-") && name.endsWith(".log")) {
+                try {
+                    segments.add(Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    logger.warning("Ignoring unexpected file in Pubu outbox: " + file);
+                }
+            }
+        }
+        Long[] sorted = segments.toArray(new Long[segments.size()]);
+        Arrays.sort(sorted);
+
+        Map<Long, Pending> replayed = new HashMap<Long, Pending>();
+        for (Long segment : sorted) {
+            liveBySegment.put(segment, 0);
+            activeSegment = segment;
+            try {
+                readSegment(segment, replayed);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to read Pubu outbox segment " + segment, e);
+            }
+        }
+        for (Pending entry : replayed.values()) {
+            nextId = Math.max(nextId, entry.id + 1);
+            pending.put(entry.id, entry);
+            liveBySegment.put(entry.segment, liveBySegment.get(entry.segment) + 1);
+        }
+        // start a fresh segment so records from this run never mix with a possibly torn tail
+        if (!liveBySegment.isEmpty()) {
+            activeSegment++;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to compact Pubu outbox", e);
+        }
+        if (!pending.isEmpty()) {
+            logger.info("Replaying " + pending.size() + " undelivered Pubu notification(s)");
+        }
+        long stagger = 0;
+        for (Pending entry : pending.values()) {
+            schedule(entry, stagger);
+            stagger += 100;
+        }
+    }
+
+    private void readSegment(long segment, Map<Long, Pending> replayed) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segmentFile(segment)), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 6);
+                try {
+                    if (fields[0].equals("A") && fields.length >= 5) {
+                        long id = Long.parseLong(fields[1]);
+                        Pending entry = new Pending(id, fields[3], fields[4], fields.length == 6 ? fields[5] : null,
+                                Long.parseLong(fields[2]));
+                        entry.segment = segment;
+                        replayed.put(id, entry);
+                    } else if (fields[0].equals("D") && fields.length == 2) {
+                        long id = Long.parseLong(fields[1]);
+                        replayed.remove(id);
+                        nextId = Math.max(nextId, id + 1);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.fine("Skipping torn Pubu outbox record in segment " + segment);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    synchronized void close() {
+        closeWriter();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void init() {
+        synchronized (INSTANCE) {
+            INSTANCE.open();
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.close();
+    }
+}
@@ -0,0 +1,262 @@
+package jenkins.plugins.pubu;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serializes payloads into request bodies. The legacy format form-encodes the JSON text as a {@code payload}
+ * parameter with {@code _version: 2}; the JSON format writes the document into an {@code application/json}
+ * body, optionally gzip-compressed. Payloads above the configured size have their commit list, and then
+ * long text fields, cut down.
+ * <p>
+ * Either way the document is written once, straight into a byte buffer, without building the JSON text
+ * or its form-encoded copy as strings. The body is buffered rather than streamed into each request so
+ * that it is encoded once however many webhooks it goes to, and so the non-blocking client, which needs
+ * the bytes up front, can send it; that costs one buffer of the body's size per notification.
+ */
+final class PayloadEncoder {
+
+    private static final Logger logger = Logger.getLogger(PayloadEncoder.class.getName());
+
+    static final int DEFAULT_MAX_PAYLOAD_SIZE = 256;
+    private static final int MAX_FIELD_LENGTH = 1000;
+    private static final byte[] FORM_PREFIX = {'p', 'a', 'y', 'l', 'o', 'a', 'd', '='};
+
+    private static final PayloadEncoder INSTANCE = new PayloadEncoder();
+
+    private volatile boolean json;
+    private volatile boolean gzip;
+    private volatile int maxPayloadSize = DEFAULT_MAX_PAYLOAD_SIZE * 1024;
+
+    private PayloadEncoder() {
+    }
+
+    static PayloadEncoder get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxPayloadSize in kilobytes
+     */
+    void configure(boolean json, boolean gzip, int maxPayloadSize) {
+        this.json = json;
+        this.gzip = gzip;
+        this.maxPayloadSize = maxPayloadSize * 1024;
+    }
+
+    EncodedPayload encode(JSONObject payload) {
+        return encode(payload, null);
+    }
+
+    /**
+     * Truncates the payload if needed and serializes it into a request body. The payload must not be
+     * modified afterwards, as the result keeps a reference to it.
+     *
+     * @param job full name of the job the payload is about, or null if it is about none
+     */
+    EncodedPayload encode(JSONObject payload, String job) {
+        if (!json) {
+            payload.put("_version", 2);
+        }
+        long size = truncate(payload, maxPayloadSize);
+        try {
+            int capacity = (int) Math.min(size, Integer.MAX_VALUE - 8);
+            if (!json) {
+                // most of a JSON document is letters and digits, which stay as they are
+                Buffer buffer = new Buffer(capacity + capacity / 4 + FORM_PREFIX.length);
+                buffer.write(FORM_PREFIX);
+                write(payload, new FormEncodingOutputStream(buffer));
+                return new EncodedPayload(payload, job, buffer.bytes(), "application/x-www-form-urlencoded; charset=UTF-8", null, size);
+            }
+            boolean compress = gzip;
+            Buffer buffer = new Buffer(compress ? Math.min(capacity, 8192) : capacity);
+            write(payload, compress ? new GZIPOutputStream(buffer, 8192) : buffer);
+            return new EncodedPayload(payload, job, buffer.bytes(), "application/json; charset=UTF-8", compress ? "gzip" : null, size);
+        } catch (IOException e) {
+            // only in-memory streams are involved
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(JSONObject payload, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        payload.write(writer);
+        writer.close();
+    }
+
+    /**
+     * Drops trailing commits, then shortens long top-level text fields, until the encoded payload fits.
+     * The payload is measured once, by encoding into a counting sink; after that each cut is accounted for
+     * by the size of what it removes, so nothing is buffered or encoded again. Room for the
+     * {@code commitsTruncated} and {@code truncated} markers is reserved before anything is cut, so they
+     * do not push the result back over the limit.
+     *
+     * @return the encoded size after truncation
+     */
+    static long truncate(JSONObject payload, int maxSize) {
+        long size = sizeOf(payload);
+        if (size <= maxSize) {
+            return size;
+        }
+        JSONArray commits = payload.optJSONArray("commits");
+        if (commits != null && commits.length() > 0) {
+            int total = commits.length();
+            // the count written at the end has no more digits than the total
+            size += markerSize("commitsTruncated", total);
+            int kept = total;
+            while (kept > 0 && size > maxSize) {
+                kept--;
+                // the element and the comma before it, if any
+                size -= sizeOf(commits.opt(kept)) + (kept > 0 ? 1 : 0);
+            }
+            while (commits.length() > kept) {
+                commits.remove(commits.length() - 1);
+            }
+            int removed = total - kept;
+            payload.put("commitsTruncated", removed);
+            size -= String.valueOf(total).length() - String.valueOf(removed).length();
+        }
+        if (size > maxSize) {
+            size += markerSize("truncated", true);
+            for (Iterator<?> keys = payload.keys(); keys.hasNext(); ) {
+                String key = (String) keys.next();
+                Object value = payload.opt(key);
+                if (value instanceof String && ((String) value).length() > MAX_FIELD_LENGTH) {
+                    String shortened = ((String) value).substring(0, MAX_FIELD_LENGTH) + "...";
+                    payload.put(key, shortened);
+                    size -= sizeOf(value) - sizeOf(shortened);
+                }
+            }
+            payload.put("truncated", true);
+        }
+        if (size > maxSize) {
+            logger.warning("Pubu payload for " + payload.optString("project") + " is still " + size + " bytes after truncation");
+        }
+        return size;
+    }
+
+    static long sizeOf(JSONObject payload) {
+        CountingWriter counter = new CountingWriter();
+        payload.write(counter);
+        return counter.bytes;
+    }
+
+    private static long sizeOf(Object value) {
+        CountingWriter counter = new CountingWriter();
+        if (value instanceof JSONObject) {
+            ((JSONObject) value).write(counter);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray) value).write(counter);
+        } else {
+            String text = value instanceof String ? JSONObject.quote((String) value) : String.valueOf(value);
+            counter.write(text, 0, text.length());
+        }
+        return counter.bytes;
+    }
+
+    /**
+     * Size of a {@code ,"key":value} member added to a non-empty object.
+     */
+    private static long markerSize(String key, Object value) {
+        return 1 + sizeOf(key) + 1 + sizeOf(value);
+    }
+
+    /**
+     * A byte buffer that hands out its own array when it is exactly full, so a body whose size is known
+     * in advance is not copied again.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int capacity) {
+            super(Math.max(32, capacity));
+        }
+
+        byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    /**
+     * Percent-encodes the bytes written to it like {@link java.net.URLEncoder} does, so the form body is
+     * encoded in the same pass that writes the JSON document.
+     */
+    private static final class FormEncodingOutputStream extends FilterOutputStream {
+        private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+        FormEncodingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            b &= 0xFF;
+            if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+                    || b == '.' || b == '-' || b == '*' || b == '_') {
+                out.write(b);
+            } else if (b == ' ') {
+                out.write('+');
+            } else {
+                out.write('%');
+                out.write(HEX[b >> 4]);
+                out.write(HEX[b & 0xF]);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+
+    /**
+     * Counts the UTF-8 encoded length of what is written to it.
+     */
+    private static final class CountingWriter extends Writer {
+        long bytes;
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(buf[i]);
+            }
+        }
+
+        @Override
+        public void write(int c) {
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800 || (c >= 0xD800 && c <= 0xDFFF)) {
+                // each half of a surrogate pair accounts for half of its 4-byte encoding
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Action;
+import hudson.model.Job;
+
+import java.util.List;
+
+/**
+ * Lists the recent Pubu deliveries of one job, from {@link DeliveryLog}.
+ */
+public class PubuDeliveriesAction implements Action {
+
+    private final Job<?, ?> job;
+
+    PubuDeliveriesAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    public String getDisplayName() {
+        return "Pubu Deliveries";
+    }
+
+    public String getUrlName() {
+        return "pubu-deliveries";
+    }
+
+    public List<DeliveryLog.Delivery> getDeliveries() {
+        return DeliveryLog.get().getDeliveries(job.getFullName());
+    }
+}
@@ -0,0 +1,232 @@
+package jenkins.plugins.pubu;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Delivery metrics: payload build time and queue wait for the whole plugin, and HTTP round trip,
+ * outcomes by status code and payload bytes per webhook. Recording only touches preallocated
+ * counters; {@link PubuMetricsAction} renders them as JSON or in the Prometheus text format.
+ */
+public final class PubuMetrics {
+
+    private static final int MAX_STATUS = 600;
+
+    private static final PubuMetrics INSTANCE = new PubuMetrics();
+
+    private final LatencyHistogram payloadBuild = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    private PubuMetrics() {
+    }
+
+    public static PubuMetrics get() {
+        return INSTANCE;
+    }
+
+    static final class Endpoint {
+        final String label;
+        final LatencyHistogram roundTrip = new LatencyHistogram();
+        final StripedCounter successes = new StripedCounter();
+        final StripedCounter payloadBytes = new StripedCounter();
+        // indexed by HTTP status, 0 when no response was received
+        final AtomicLongArray failures = new AtomicLongArray(MAX_STATUS);
+
+        Endpoint(String label) {
+            this.label = label;
+        }
+    }
+
+    void recordPayloadBuild(long nanos) {
+        payloadBuild.record(nanos);
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    /**
+     * @param status HTTP status, or 0 if the request failed without a response
+     */
+    void recordDelivery(String url, int status, long nanos, long bytes) {
+        Endpoint endpoint = endpoint(url);
+        endpoint.roundTrip.record(nanos);
+        endpoint.payloadBytes.add(bytes);
+        if (status == 200) {
+            endpoint.successes.increment();
+        } else {
+            endpoint.failures.incrementAndGet(status > 0 && status < MAX_STATUS ? status : 0);
+        }
+    }
+
+    private Endpoint endpoint(String url) {
+        Endpoint endpoint = endpoints.get(url);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint(label(url));
+            endpoint = endpoints.putIfAbsent(url, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Webhook URLs carry their token in the path, so long path segments are shown as a prefix and a short
+     * hash of the whole segment, which tells apart tokens that share the prefix.
+     */
+    static String label(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() == null) {
+                return "invalid";
+            }
+            StringBuilder label = new StringBuilder(uri.getHost());
+            String path = uri.getPath();
+            for (String segment : path == null ? new String[0] : path.split("/")) {
+                if (segment.length() == 0) {
+                    continue;
+                }
+                label.append('/').append(segment.length() > 8 ? segment.substring(0, 4) + "***" + hash(segment) : segment);
+            }
+            return label.toString();
+        } catch (URISyntaxException e) {
+            return "invalid";
+        }
+    }
+
+    /**
+     * The first six hex digits of the SHA-256 of the segment.
+     */
+    private static String hash(String segment) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(segment.getBytes("UTF-8"));
+            return String.format("%02x%02x%02x", digest[0], digest[1], digest[2]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("payloadBuild", toJson(payloadBuild));
+        json.put("queueWait", toJson(queueWait));
+        json.put("queueSize", NotificationDispatcher.get().getQueueSize());
+        json.put("shedNotifications", NotificationDispatcher.get().getShedCount());
+        json.put("mergedNotifications", NotificationDispatcher.get().getMergedCount());
+        json.put("spilledNotifications", NotificationDispatcher.get().getSpilledCount());
+        json.put("outboxPending", Outbox.get().getPendingCount());
+        json.put("delayedSends", RateLimiter.get().getDelayedSends());
+        json.put("throttledSends", RateLimiter.get().getThrottledSends());
+        JSONArray list = new JSONArray();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            JSONObject item = new JSONObject();
+            item.put("endpoint", endpoint.label);
+            item.put("circuit", CircuitBreaker.get().getState(entry.getKey()).toString());
+            item.put("successes", endpoint.successes.sum());
+            JSONObject failures = new JSONObject();
+            for (int status = 0; status < MAX_STATUS; status++) {
+                long count = endpoint.failures.get(status);
+                if (count > 0) {
+                    failures.put(status == 0 ? "error" : String.valueOf(status), count);
+                }
+            }
+            item.put("failures", failures);
+            item.put("payloadBytes", endpoint.payloadBytes.sum());
+            item.put("roundTrip", toJson(endpoint.roundTrip));
+            list.put(item);
+        }
+        json.put("endpoints", list);
+        return json;
+    }
+
+    private static JSONObject toJson(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("sumMillis", histogram.getSumMillis());
+        JSONObject buckets = new JSONObject();
+        for (int i = 0; i <= LatencyHistogram.BOUNDS.length; i++) {
+            buckets.put(i < LatencyHistogram.BOUNDS.length ? String.valueOf(LatencyHistogram.BOUNDS[i]) : "inf", histogram.getBucket(i));
+        }
+        json.put("bucketsMillis", buckets);
+        return json;
+    }
+
+    void writePrometheus(PrintWriter w) {
+        writeHistogram(w, "pubu_payload_build_seconds", "", payloadBuild);
+        writeHistogram(w, "pubu_queue_wait_seconds", "", queueWait);
+        w.println("# TYPE pubu_queue_size gauge");
+        w.println("pubu_queue_size " + NotificationDispatcher.get().getQueueSize());
+        w.println("# TYPE pubu_shed_notifications_total counter");
+        w.println("pubu_shed_notifications_total{reason=\"dropped\"} " + NotificationDispatcher.get().getShedCount());
+        w.println("pubu_shed_notifications_total{reason=\"merged\"} " + NotificationDispatcher.get().getMergedCount());
+        w.println("pubu_shed_notifications_total{reason=\"outbox\"} " + NotificationDispatcher.get().getSpilledCount());
+        w.println("# TYPE pubu_outbox_pending gauge");
+        w.println("pubu_outbox_pending " + Outbox.get().getPendingCount());
+        w.println("# TYPE pubu_delayed_sends_total counter");
+        w.println("pubu_delayed_sends_total " + RateLimiter.get().getDelayedSends());
+        w.println("# TYPE pubu_throttled_sends_total counter");
+        w.println("pubu_throttled_sends_total " + RateLimiter.get().getThrottledSends());
+
+        w.println("# TYPE pubu_deliveries_total counter");
+        for (Endpoint endpoint : endpoints.values()) {
+            String label = "endpoint=\"" + endpoint.label + "\"";
+            w.println("pubu_deliveries_total{" + label + ",status=\"200\"} " + endpoint.successes.sum());
+            for (int status = 0; status < MAX_STATUS; status++) {
+                long count = endpoint.failures.get(status);
+                if (count > 0) {
+                    w.println("pubu_deliveries_total{" + label + ",status=\"" + (status == 0 ? "error" : status) + "\"} " + count);
+                }
+            }
+        }
+        w.println("# TYPE pubu_payload_bytes_total counter");
+        for (Endpoint endpoint : endpoints.values()) {
+            w.println("pubu_payload_bytes_total{endpoint=\"" + endpoint.label + "\"} " + endpoint.payloadBytes.sum());
+        }
+        w.println("# TYPE pubu_circuit_open gauge");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            boolean open = CircuitBreaker.get().getState(entry.getKey()) != CircuitBreaker.State.CLOSED;
+            w.println("pubu_circuit_open{endpoint=\"" + entry.getValue().label + "\"} " + (open ? 1 : 0));
+        }
+        boolean first = true;
+        for (Endpoint endpoint : endpoints.values()) {
+            writeHistogramSamples(w, "pubu_http_request_seconds", "endpoint=\"" + endpoint.label + "\",", endpoint.roundTrip, first);
+            first = false;
+        }
+    }
+
+    private static void writeHistogram(PrintWriter w, String name, String labels, LatencyHistogram histogram) {
+        writeHistogramSamples(w, name, labels, histogram, true);
+    }
+
+    private static void writeHistogramSamples(PrintWriter w, String name, String labels, LatencyHistogram histogram, boolean withType) {
+        if (withType) {
+            w.println("# TYPE " + name + " histogram");
+        }
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+            cumulative += histogram.getBucket(i);
+            w.println(name + "_bucket{" + labels + "le=\"" + LatencyHistogram.BOUNDS[i] / 1000.0 + "\"} " + cumulative);
+        }
+        cumulative += histogram.getBucket(LatencyHistogram.BOUNDS.length);
+        w.println(name + "_bucket{" + labels + "le=\"+Inf\"} " + cumulative);
+        String plain = labels.length() > 0 ? "{" + labels.substring(0, labels.length() - 1) + "}" : "";
+        w.println(name + "_sum" + plain + " " + histogram.getSumMillis() / 1000.0);
+        w.println(name + "_count" + plain + " " + histogram.getCount());
+    }
+}
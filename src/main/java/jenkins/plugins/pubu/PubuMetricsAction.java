@@ -0,0 +1,46 @@
+package jenkins.plugins.pubu;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exposes {@link PubuMetrics} at {@code /pubu-metrics/} as JSON and at {@code /pubu-metrics/prometheus}
+ * in the Prometheus text format. Both require the administer permission.
+ */
+@Extension
+public class PubuMetricsAction implements RootAction {
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Pubu Metrics";
+    }
+
+    public String getUrlName() {
+        return "pubu-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        PubuMetrics.get().toJson().write(writer);
+        writer.flush();
+    }
+
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("text/plain; version=0.0.4;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        PubuMetrics.get().writePrometheus(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,158 @@
+package jenkins.plugins.pubu;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Failure;
+import hudson.model.Item;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Starts and follows {@link NotificationReplay replays}: at {@code /pubu-replay/} for any jobs, which
+ * requires the administer permission, and on each job for its own builds, which requires the permission
+ * to configure it. {@link #getTarget()} checks the permission for every request.
+ */
+@Extension
+public class PubuReplayAction implements RootAction, StaplerProxy {
+
+    static final String DATE_FORMAT = "yyyy-MM-dd HH:mm";
+
+    // null for the global action
+    private final AbstractProject<?, ?> job;
+
+    public PubuReplayAction() {
+        this(null);
+    }
+
+    PubuReplayAction(AbstractProject<?, ?> job) {
+        this.job = job;
+    }
+
+    public AbstractProject<?, ?> getJob() {
+        return job;
+    }
+
+    public String getIconFileName() {
+        boolean permitted = job == null ? Jenkins.getInstance().hasPermission(Jenkins.ADMINISTER) : job.hasPermission(Item.CONFIGURE);
+        return permitted ? "redo.png" : null;
+    }
+
+    public String getDisplayName() {
+        return "Pubu Replay";
+    }
+
+    public String getUrlName() {
+        return "pubu-replay";
+    }
+
+    public int getDefaultRate() {
+        return NotificationReplay.DEFAULT_RATE;
+    }
+
+    public String getDateFormat() {
+        return DATE_FORMAT;
+    }
+
+    public List<NotificationReplay.Replay> getReplays() {
+        return NotificationReplay.get().getReplays(job == null ? null : job.getFullName());
+    }
+
+    public Object getTarget() {
+        checkPermission();
+        return this;
+    }
+
+    private void checkPermission() {
+        if (job == null) {
+            Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        } else {
+            job.checkPermission(Item.CONFIGURE);
+        }
+    }
+
+    @RequirePOST
+    @SuppressWarnings("rawtypes")
+    public void doStart(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        NotificationReplay.Range range = new NotificationReplay.Range(
+                parseNumber(req.getParameter("fromNumber"), 0, "From build"),
+                parseNumber(req.getParameter("toNumber"), Integer.MAX_VALUE, "To build"),
+                parseDate(req.getParameter("since"), 0, "Since"),
+                parseDate(req.getParameter("until"), Long.MAX_VALUE, "Until"));
+        if (!range.isBounded()) {
+            throw new Failure("Give a range of build numbers or a time window to replay");
+        }
+        int rate = parseNumber(req.getParameter("rate"), NotificationReplay.DEFAULT_RATE, "Builds per second");
+        if (rate < 1) {
+            throw new Failure("Builds per second must be at least 1");
+        }
+        List<AbstractProject> jobs;
+        String label;
+        if (job != null) {
+            jobs = Collections.<AbstractProject>singletonList(job);
+            label = job.getFullDisplayName();
+        } else {
+            String names = Util.fixEmptyAndTrim(req.getParameter("jobs"));
+            if (names == null) {
+                jobs = Jenkins.getInstance().getAllItems(AbstractProject.class);
+                label = "all jobs";
+            } else {
+                jobs = new ArrayList<AbstractProject>();
+                for (String name : names.split("[,\\s]+")) {
+                    AbstractProject project = Jenkins.getInstance().getItemByFullName(name, AbstractProject.class);
+                    if (project == null) {
+                        throw new Failure("No such job: " + name);
+                    }
+                    jobs.add(project);
+                }
+                label = names;
+            }
+        }
+        NotificationReplay.get().start(job == null ? null : job.getFullName(), label + ", " + range, jobs, range, rate);
+        rsp.sendRedirect(".");
+    }
+
+    @RequirePOST
+    public void doCancel(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        NotificationReplay.Replay replay = NotificationReplay.get().getReplay(parseNumber(req.getParameter("id"), 0, "Replay"));
+        if (replay != null && (job == null || job.getFullName().equals(replay.getScope()))) {
+            replay.cancel();
+        }
+        rsp.sendRedirect(".");
+    }
+
+    private static int parseNumber(String value, int defaultValue, String field) {
+        value = Util.fixEmptyAndTrim(value);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.startsWith("#") ? value.substring(1) : value);
+        } catch (NumberFormatException e) {
+            throw new Failure(field + " is not a number: " + value);
+        }
+    }
+
+    private static long parseDate(String value, long defaultValue, String field) {
+        value = Util.fixEmptyAndTrim(value);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return new SimpleDateFormat(DATE_FORMAT).parse(value).getTime();
+        } catch (ParseException e) {
+            throw new Failure(field + " is not a time like " + DATE_FORMAT + ": " + value);
+        }
+    }
+}
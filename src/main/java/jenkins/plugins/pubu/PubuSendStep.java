@@ -0,0 +1,206 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Result;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import jenkins.plugins.pubu.NotificationDispatcher.Priority;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code pubuSend} Pipeline step. Sends the run's status in the same payload format as the freestyle
+ * notifier, with an optional message shown as an attachment. The payload is built and sent on the
+ * {@link NotificationDispatcher}'s workers and the step returns at once with whether it was queued; with
+ * {@code waitForDelivery: true} the step instead completes asynchronously with whether Pubu accepted it.
+ * The CPS VM thread never reads test results or waits on the webhook either way. Jobs with the Pubu job
+ * property are also notified of their runs' start and completion by {@link SlackListener}.
+ */
+public class PubuSendStep extends AbstractStepImpl {
+
+    private final String message;
+    private String url;
+    private String color = "good";
+    private boolean includeTestSummary;
+    private boolean waitForDelivery;
+
+    @DataBoundConstructor
+    public PubuSendStep(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @DataBoundSetter
+    public void setUrl(String url) {
+        this.url = Util.fixEmptyAndTrim(url);
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    @DataBoundSetter
+    public void setColor(String color) {
+        this.color = Util.fixEmptyAndTrim(color);
+    }
+
+    public boolean isIncludeTestSummary() {
+        return includeTestSummary;
+    }
+
+    @DataBoundSetter
+    public void setIncludeTestSummary(boolean includeTestSummary) {
+        this.includeTestSummary = includeTestSummary;
+    }
+
+    public boolean isWaitForDelivery() {
+        return waitForDelivery;
+    }
+
+    @DataBoundSetter
+    public void setWaitForDelivery(boolean waitForDelivery) {
+        this.waitForDelivery = waitForDelivery;
+    }
+
+    /**
+     * Builds the payload and sends it on the dispatcher's workers, as reading the test results may load
+     * them from disk.
+     *
+     * @return true if the step is done, false if {@code context} is completed once the delivery is known,
+     *         the payload fails to build or the dispatcher drops the notification
+     */
+    boolean send(final Run<?, ?> run, final List<SlackService> services, final StepContext context) {
+        final String job = run.getParent().getFullName();
+        final boolean wait = waitForDelivery;
+        ListenableFuture<Boolean> prepared = NotificationDispatcher.get().submit(new Runnable() {
+            public void run() {
+                if (!wait) {
+                    NotificationDispatcher.get().dispatch(job, services, payload(run));
+                    return;
+                }
+                try {
+                    Futures.addCallback(NotificationDispatcher.get().submit(job, services, payload(run)), new FutureCallback<List<Boolean>>() {
+                        public void onSuccess(List<Boolean> delivered) {
+                            context.onSuccess(!delivered.contains(false));
+                        }
+
+                        public void onFailure(Throwable t) {
+                            context.onFailure(t);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    context.onFailure(e);
+                }
+            }
+        }, job, Priority.HIGH);
+        if (!wait) {
+            // only done already if it was rejected, as the caller is not one of the dispatcher's workers
+            context.onSuccess(!prepared.isDone());
+            return true;
+        }
+        Futures.addCallback(prepared, new FutureCallback<Boolean>() {
+            public void onSuccess(Boolean ran) {
+                // the step's context is completed by the task only if it ran
+                if (!ran) {
+                    context.onSuccess(false);
+                }
+            }
+
+            public void onFailure(Throwable t) {
+                context.onFailure(t);
+            }
+        });
+        return false;
+    }
+
+    JSONObject payload(Run<?, ?> run) {
+        JSONObject payload = ActiveNotifier.getBuildStatusPayload(run, includeTestSummary, "pipeline");
+        if (run.getResult() == null) {
+            // a running Pipeline has no result until something marks it otherwise
+            payload.put("status", ActiveNotifier.getBuildStatus(Result.SUCCESS));
+        }
+        if (Util.fixEmpty(message) != null) {
+            payload.put("attachments", StandardSlackService.attachments(message, color != null ? color : "good"));
+        }
+        return payload;
+    }
+
+    public static class Execution extends AbstractStepExecutionImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient PubuSendStep step;
+
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        @Override
+        public boolean start() throws Exception {
+            String url = step.getUrl();
+            if (url == null) {
+                url = Util.fixEmpty(Jenkins.getInstance().getDescriptorByType(SlackNotifier.DescriptorImpl.class).getTeamDomain());
+            }
+            if (url == null) {
+                throw new AbortException("No Pubu webhook URLs given and none configured globally");
+            }
+            List<SlackService> services = new ArrayList<SlackService>();
+            for (String webhook : NotifierConfig.splitWebhooks(url)) {
+                services.add(new StandardSlackService(webhook));
+            }
+            return step.send(run, services, getContext());
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            // the delivery being waited for did not survive the restart; a failed one is still in the outbox
+            getContext().onSuccess(false);
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "pubuSend";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Send Pubu notification";
+        }
+    }
+}
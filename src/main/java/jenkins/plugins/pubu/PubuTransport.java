@@ -0,0 +1,52 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Sends encoded payloads to a webhook over HTTP. {@link StandardSlackService} applies rate limiting,
+ * the circuit breaker and the handling of the response on top of whichever transport is selected in
+ * the global settings: {@link HttpClientTransport}, which blocks the calling thread, or
+ * {@link AsyncHttpTransport}, which keeps requests in flight on a few I/O threads.
+ */
+public interface PubuTransport {
+
+    /**
+     * Posts the payload. The future fails if no response was received.
+     */
+    ListenableFuture<Response> send(String url, EncodedPayload payload);
+
+    /**
+     * Releases the transport's connections and threads.
+     */
+    void close();
+
+    /**
+     * What the webhook answered.
+     */
+    final class Response {
+        private final int status;
+        private final String retryAfter;
+        private final String body;
+
+        public Response(int status, String retryAfter, String body) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the {@code Retry-After} header, or null
+         */
+        public String getRetryAfter() {
+            return retryAfter;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package jenkins.plugins.pubu;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket per webhook URL that every outbound post passes through, so a mass rebuild cannot
+ * flood Pubu. When Pubu answers 429 or 503 with a {@code Retry-After} header, the endpoint's bucket
+ * is paused until that time.
+ * <p>
+ * Posts made for the {@link NotificationDispatcher} do not wait on its workers: they {@link #reserve}
+ * their turn and are {@link #schedule scheduled} for it, so a throttled webhook never holds up the others.
+ */
+final class RateLimiter {
+
+    static final int DEFAULT_RATE = 10;
+    static final int DEFAULT_BURST = 20;
+
+    private static final RateLimiter INSTANCE = new RateLimiter();
+
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private final AtomicLong throttledSends = new AtomicLong();
+    private final AtomicLong delayedSends = new AtomicLong();
+    private volatile int rate = DEFAULT_RATE;
+    private volatile int burst = DEFAULT_BURST;
+    private ScheduledExecutorService scheduler;
+
+    private RateLimiter() {
+    }
+
+    static RateLimiter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param rate  sustained requests per second for each endpoint, 0 to disable limiting
+     * @param burst requests an idle endpoint may send at once
+     */
+    void configure(int rate, int burst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Blocks until the endpoint may be called again. Only for callers that wait for the post anyway.
+     */
+    void acquire(String url) throws InterruptedException {
+        long wait = reserve(url);
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Takes the endpoint's next turn without waiting for it.
+     *
+     * @return milliseconds until the turn, 0 if the endpoint may be called right away
+     */
+    long reserve(String url) {
+        Bucket bucket = bucket(url);
+        long now = System.currentTimeMillis();
+        long wait = bucket.pausedFor(now);
+        wait += bucket.reserve(now + wait, rate, burst);
+        if (wait > 0) {
+            delayedSends.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * Runs the task on the {@link NotificationDispatcher}'s workers once the delay has passed. The timer
+     * thread only hands the task over, so it is never held by a post.
+     */
+    void schedule(final Runnable task, long delayMillis) {
+        synchronized (this) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(
+                        new NamingThreadFactory(new DaemonThreadFactory(), "Pubu rate limiter"));
+            }
+        }
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                NotificationDispatcher.get().resume(task);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records that the endpoint pushed back and holds further sends for the given time.
+     */
+    void throttled(String url, long pauseMillis) {
+        throttledSends.incrementAndGet();
+        if (pauseMillis > 0) {
+            bucket(url).pause(System.currentTimeMillis() + pauseMillis);
+        }
+    }
+
+    /**
+     * Number of posts Pubu answered with 429 or 503.
+     */
+    long getThrottledSends() {
+        return throttledSends.get();
+    }
+
+    /**
+     * Number of posts that had to wait for their endpoint's bucket.
+     */
+    long getDelayedSends() {
+        return delayedSends.get();
+    }
+
+    private Bucket bucket(String url) {
+        Bucket bucket = buckets.get(url);
+        if (bucket == null) {
+            Bucket created = new Bucket(burst);
+            bucket = buckets.putIfAbsent(url, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long refilled;
+        private long pausedUntil;
+
+        Bucket(int burst) {
+            this.tokens = burst;
+            this.refilled = System.currentTimeMillis();
+        }
+
+        synchronized long pausedFor(long now) {
+            return Math.max(0, pausedUntil - now);
+        }
+
+        synchronized void pause(long until) {
+            pausedUntil = Math.max(pausedUntil, until);
+        }
+
+        /**
+         * Takes a token, going into debt if none is left, and returns how long after {@code now} the
+         * caller has to wait for the token it took.
+         */
+        synchronized long reserve(long now, int rate, int burst) {
+            if (rate <= 0) {
+                return 0;
+            }
+            // an earlier reservation after a pause may have moved the bucket past now
+            long ahead = Math.max(0, refilled - now);
+            if (ahead == 0) {
+                tokens = Math.min(burst, tokens + (now - refilled) * rate / 1000.0);
+                refilled = now;
+            }
+            tokens -= 1;
+            return ahead + (tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / rate));
+        }
+    }
+}
@@ -2,59 +2,61 @@ package jenkins.plugins.pubu;
 
 import hudson.Extension;
 import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
-import hudson.tasks.Publisher;
 
-import java.util.Map;
 import java.util.logging.Logger;
 
+/**
+ * Notifies the completion of every run of a job with a {@link SlackNotifier.SlackJobProperty}, freestyle
+ * builds and Pipeline runs alike. Freestyle builds announce their start from the job property's
+ * {@code prebuild}, before the build's steps run; other runs do it from here.
+ */
 @Extension
 @SuppressWarnings("rawtypes")
-public class SlackListener extends RunListener<AbstractBuild> {
+public class SlackListener extends RunListener<Run> {
 
     private static final Logger logger = Logger.getLogger(SlackListener.class.getName());
 
     public SlackListener() {
-        super(AbstractBuild.class);
+        super(Run.class);
     }
 
     @Override
-    public void onCompleted(AbstractBuild r, TaskListener listener) {
-        getNotifier(r.getProject()).completed(r);
+    public void onCompleted(Run r, TaskListener listener) {
+        getNotifier(r.getParent()).completed(r);
+        if (r.getParent().getProperty(SlackNotifier.SlackJobProperty.class) != null) {
+            BuildResultIndex.get().record(r);
+        }
         super.onCompleted(r, listener);
     }
 
     @Override
-    public void onStarted(AbstractBuild r, TaskListener listener) {
-        // getNotifier(r.getProject()).started(r);
-        // super.onStarted(r, listener);
+    public void onStarted(Run r, TaskListener listener) {
+        if (!(r instanceof AbstractBuild)) {
+            SlackNotifier.SlackJobProperty property = (SlackNotifier.SlackJobProperty) r.getParent().getProperty(SlackNotifier.SlackJobProperty.class);
+            if (property != null && property.getStartNotification()) {
+                getNotifier(r.getParent()).started(r);
+            }
+        }
     }
 
     @Override
-    public void onDeleted(AbstractBuild r) {
-        // getNotifier(r.getProject()).deleted(r);
+    public void onDeleted(Run r) {
+        // getNotifier(r.getParent()).deleted(r);
         // super.onDeleted(r);
     }
 
     @Override
-    public void onFinalized(AbstractBuild r) {
-        // getNotifier(r.getProject()).finalized(r);
+    public void onFinalized(Run r) {
+        // getNotifier(r.getParent()).finalized(r);
         // super.onFinalized(r);
     }
 
-    @SuppressWarnings("unchecked")
-    FineGrainedNotifier getNotifier(AbstractProject project) {
-        Map<Descriptor<Publisher>, Publisher> map = project.getPublishersList().toMap();
-        for (Publisher publisher : map.values()) {
-            if (publisher instanceof SlackNotifier) {
-                ((SlackNotifier)publisher).update();
-                return new ActiveNotifier((SlackNotifier) publisher);
-            }
-        }
-        return new DisabledNotifier();
+    FineGrainedNotifier getNotifier(Job project) {
+        return NotifierCache.get().getNotifier(project);
     }
 
 }
@@ -1,6 +1,9 @@
 package jenkins.plugins.pubu;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import hudson.Extension;
+import hudson.Util;
 import hudson.Launcher;
 import hudson.model.*;
 import hudson.tasks.BuildStepDescriptor;
@@ -9,13 +12,21 @@ import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
 import hudson.util.FormValidation;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,6 +34,9 @@ public class SlackNotifier extends Notifier {
 
     private static final Logger logger = Logger.getLogger(SlackNotifier.class.getName());
 
+    // how long a connection test waits for the webhooks to answer, in seconds
+    private static final int TEST_CONNECTION_DEADLINE = 10;
+
     private String teamDomain;
     private String authToken;
     private String buildServerUrl;
@@ -82,6 +96,11 @@ public class SlackNotifier extends Notifier {
         return true;
     }
 
+    /**
+     * @deprecated notifications read the global settings from the cached {@link NotifierConfig}; this
+     * only copies them into the publisher for callers that still read them from here.
+     */
+    @Deprecated
     public void update() {
         this.teamDomain = getDescriptor().teamDomain;
         this.authToken = getDescriptor().token;
@@ -90,23 +109,111 @@ public class SlackNotifier extends Notifier {
         this.sendAs = getDescriptor().sendAs;
     }
 
+    /**
+     * Compiles the template when the configuration is saved, so it is never parsed again per build and
+     * a malformed one is rejected right away.
+     *
+     * @return the template, or null if none was given
+     */
+    private static String checkTemplate(String template) throws Descriptor.FormException {
+        template = Util.fixEmptyAndTrim(template);
+        if (template != null) {
+            try {
+                MessageTemplate.compile(template);
+            } catch (IllegalArgumentException e) {
+                throw new Descriptor.FormException("Invalid message template: " + e.getMessage(), "pubuMessageTemplate");
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Sends a test message to every webhook at once without waiting for each answer, and waits up to
+     * {@link #TEST_CONNECTION_DEADLINE} seconds in total for the answers, so a hung webhook cannot hold
+     * the request thread. The blocking transport only hands back its answer once it has one, so with it
+     * the webhooks are posted to one after another, each bounded by the socket timeout.
+     */
+    private static FormValidation testConnection(Collection<String> urls, String message) throws InterruptedException {
+        List<String> pending = new ArrayList<String>(urls);
+        if (pending.isEmpty()) {
+            return FormValidation.error("Failure: no webhook given");
+        }
+        List<ListenableFuture<Boolean>> results = new ArrayList<ListenableFuture<Boolean>>();
+        for (String url : pending) {
+            results.add(new StandardSlackService(url).publishAsync(message, "green"));
+        }
+        try {
+            Futures.successfulAsList(results).get(TEST_CONNECTION_DEADLINE, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // the webhooks without an answer are reported below
+        } catch (ExecutionException e) {
+            // cannot happen, failed posts are reported below
+        }
+        List<String> failed = new ArrayList<String>();
+        for (int i = 0; i < pending.size(); i++) {
+            ListenableFuture<Boolean> result = results.get(i);
+            if (!result.isDone()) {
+                failed.add(pending.get(i) + " (no answer within " + TEST_CONNECTION_DEADLINE + "s)");
+                continue;
+            }
+            try {
+                if (!result.get()) {
+                    failed.add(pending.get(i));
+                }
+            } catch (ExecutionException e) {
+                failed.add(pending.get(i));
+            }
+        }
+        return failed.isEmpty() ? FormValidation.ok("Success") : FormValidation.error("Failure: " + StringUtils.join(failed, ", "));
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
         private String teamDomain;
+        private String failureTeamDomain;
         private String token;
         private String room;
         private String buildServerUrl;
         private String sendAs;
+        private int dispatcherPoolSize;
+        private int dispatcherQueueCapacity;
+        private int dispatcherShutdownTimeout;
+        private int connectTimeout;
+        private int socketTimeout;
+        private int connectionRequestTimeout;
+        // 0 disables limiting, so the default comes from here for configurations saved without it
+        private int rateLimit = RateLimiter.DEFAULT_RATE;
+        private int rateLimitBurst;
+        private int circuitFailureThreshold;
+        private int circuitFailureWindow;
+        private int circuitOpenDuration;
+        private boolean jsonPayload;
+        private boolean gzipPayload;
+        private boolean asyncTransport;
+        private int maxPayloadSize;
+        private int maxCommits;
+        private int maxAuthors;
+        private int maxUpstreamDepth;
+        private boolean digestAll;
+        private boolean digestByFolder;
+        private int digestWindow;
+        private Integer flapThreshold;
+        private String messageTemplate;
 
         public DescriptorImpl() {
             load();
+            applySettings();
         }
 
         public String getTeamDomain() {
             return teamDomain;
         }
 
+        public String getFailureTeamDomain() {
+            return failureTeamDomain;
+        }
+
         public String getToken() {
             return token;
         }
@@ -123,6 +230,131 @@ public class SlackNotifier extends Notifier {
             return sendAs;
         }
 
+        public int getDispatcherPoolSize() {
+            return dispatcherPoolSize > 0 ? dispatcherPoolSize : NotificationDispatcher.DEFAULT_POOL_SIZE;
+        }
+
+        public int getDispatcherQueueCapacity() {
+            return dispatcherQueueCapacity > 0 ? dispatcherQueueCapacity : NotificationDispatcher.DEFAULT_QUEUE_CAPACITY;
+        }
+
+        public int getDispatcherShutdownTimeout() {
+            return dispatcherShutdownTimeout > 0 ? dispatcherShutdownTimeout : NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout > 0 ? connectTimeout : HttpClientPool.DEFAULT_CONNECT_TIMEOUT;
+        }
+
+        public int getSocketTimeout() {
+            return socketTimeout > 0 ? socketTimeout : HttpClientPool.DEFAULT_SOCKET_TIMEOUT;
+        }
+
+        public int getConnectionRequestTimeout() {
+            return connectionRequestTimeout > 0 ? connectionRequestTimeout : HttpClientPool.DEFAULT_ACQUIRE_TIMEOUT;
+        }
+
+        public int getRateLimit() {
+            return Math.max(0, rateLimit);
+        }
+
+        public int getRateLimitBurst() {
+            return rateLimitBurst > 0 ? rateLimitBurst : RateLimiter.DEFAULT_BURST;
+        }
+
+        public long getThrottledSends() {
+            return RateLimiter.get().getThrottledSends();
+        }
+
+        public long getDelayedSends() {
+            return RateLimiter.get().getDelayedSends();
+        }
+
+        public int getCircuitFailureThreshold() {
+            return circuitFailureThreshold > 0 ? circuitFailureThreshold : CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+        }
+
+        public int getCircuitFailureWindow() {
+            return circuitFailureWindow > 0 ? circuitFailureWindow : CircuitBreaker.DEFAULT_FAILURE_WINDOW;
+        }
+
+        public int getCircuitOpenDuration() {
+            return circuitOpenDuration > 0 ? circuitOpenDuration : CircuitBreaker.DEFAULT_OPEN_DURATION;
+        }
+
+        public boolean getJsonPayload() {
+            return jsonPayload;
+        }
+
+        public boolean getGzipPayload() {
+            return gzipPayload;
+        }
+
+        public boolean getAsyncTransport() {
+            return asyncTransport;
+        }
+
+        public int getMaxPayloadSize() {
+            return maxPayloadSize > 0 ? maxPayloadSize : PayloadEncoder.DEFAULT_MAX_PAYLOAD_SIZE;
+        }
+
+        public int getMaxCommits() {
+            return maxCommits > 0 ? maxCommits : ChangeSetSummary.DEFAULT_MAX_COMMITS;
+        }
+
+        public int getMaxAuthors() {
+            return maxAuthors > 0 ? maxAuthors : ChangeSetSummary.DEFAULT_MAX_AUTHORS;
+        }
+
+        public int getMaxUpstreamDepth() {
+            return maxUpstreamDepth > 0 ? maxUpstreamDepth : UpstreamCommitResolver.DEFAULT_MAX_DEPTH;
+        }
+
+        public boolean getDigestAll() {
+            return digestAll;
+        }
+
+        public boolean getDigestByFolder() {
+            return digestByFolder;
+        }
+
+        public int getDigestWindow() {
+            return digestWindow > 0 ? digestWindow : DigestCollector.DEFAULT_WINDOW;
+        }
+
+        public int getFlapThreshold() {
+            return flapThreshold != null ? flapThreshold : DigestCollector.DEFAULT_FLAP_THRESHOLD;
+        }
+
+        public String getMessageTemplate() {
+            return messageTemplate;
+        }
+
+        public List<DeliveryLog.Delivery> getRecentDeliveries() {
+            return DeliveryLog.get().getDeliveries(null);
+        }
+
+        public List<CircuitBreaker.Status> getCircuitStatuses() {
+            return CircuitBreaker.get().getStatuses();
+        }
+
+        private void applySettings() {
+            NotificationDispatcher.get().configure(getDispatcherPoolSize(), getDispatcherQueueCapacity(), getDispatcherShutdownTimeout());
+            HttpClientPool.get().configure(getConnectTimeout(), getSocketTimeout(), getConnectionRequestTimeout());
+            Transports.get().configure(getAsyncTransport(), getConnectTimeout(), getSocketTimeout());
+            RateLimiter.get().configure(getRateLimit(), getRateLimitBurst());
+            CircuitBreaker.get().configure(getCircuitFailureThreshold(), getCircuitFailureWindow(), getCircuitOpenDuration());
+            PayloadEncoder.get().configure(getJsonPayload(), getGzipPayload(), getMaxPayloadSize());
+        }
+
+        private static int parseInt(String value, int defaultValue) {
+            try {
+                return value == null ? defaultValue : Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             return true;
         }
@@ -149,7 +381,10 @@ public class SlackNotifier extends Notifier {
 
         @Override
         public boolean configure(StaplerRequest sr, JSONObject formData) throws FormException {
+            // checked first, so a rejected form leaves every setting as it was
+            String template = checkTemplate(sr.getParameter("pubuMessageTemplate"));
             teamDomain = sr.getParameter("pubuTeamDomain");
+            failureTeamDomain = sr.getParameter("pubuFailureTeamDomain");
             token = sr.getParameter("pubuToken");
             room = sr.getParameter("pubuRoom");
             buildServerUrl = sr.getParameter("pubuBuildServerUrl");
@@ -157,7 +392,32 @@ public class SlackNotifier extends Notifier {
             if (buildServerUrl != null && !buildServerUrl.endsWith("/")) {
                 buildServerUrl = buildServerUrl + "/";
             }
+            dispatcherPoolSize = parseInt(sr.getParameter("pubuDispatcherPoolSize"), 0);
+            dispatcherQueueCapacity = parseInt(sr.getParameter("pubuDispatcherQueueCapacity"), 0);
+            dispatcherShutdownTimeout = parseInt(sr.getParameter("pubuDispatcherShutdownTimeout"), 0);
+            connectTimeout = parseInt(sr.getParameter("pubuConnectTimeout"), 0);
+            socketTimeout = parseInt(sr.getParameter("pubuSocketTimeout"), 0);
+            connectionRequestTimeout = parseInt(sr.getParameter("pubuConnectionRequestTimeout"), 0);
+            rateLimit = parseInt(sr.getParameter("pubuRateLimit"), RateLimiter.DEFAULT_RATE);
+            rateLimitBurst = parseInt(sr.getParameter("pubuRateLimitBurst"), RateLimiter.DEFAULT_BURST);
+            circuitFailureThreshold = parseInt(sr.getParameter("pubuCircuitFailureThreshold"), 0);
+            circuitFailureWindow = parseInt(sr.getParameter("pubuCircuitFailureWindow"), 0);
+            circuitOpenDuration = parseInt(sr.getParameter("pubuCircuitOpenDuration"), 0);
+            jsonPayload = sr.getParameter("pubuJsonPayload") != null;
+            gzipPayload = sr.getParameter("pubuGzipPayload") != null;
+            asyncTransport = sr.getParameter("pubuAsyncTransport") != null;
+            maxPayloadSize = parseInt(sr.getParameter("pubuMaxPayloadSize"), 0);
+            maxCommits = parseInt(sr.getParameter("pubuMaxCommits"), 0);
+            maxAuthors = parseInt(sr.getParameter("pubuMaxAuthors"), 0);
+            maxUpstreamDepth = parseInt(sr.getParameter("pubuMaxUpstreamDepth"), 0);
+            digestAll = sr.getParameter("pubuDigestAll") != null;
+            digestByFolder = sr.getParameter("pubuDigestByFolder") != null;
+            digestWindow = parseInt(sr.getParameter("pubuDigestWindow"), 0);
+            flapThreshold = parseInt(sr.getParameter("pubuFlapThreshold"), DigestCollector.DEFAULT_FLAP_THRESHOLD);
+            messageTemplate = template;
+            applySettings();
             save();
+            NotifierCache.get().invalidateAll();
             return super.configure(sr, formData);
         }
 
@@ -168,17 +428,14 @@ public class SlackNotifier extends Notifier {
 
         public FormValidation doTestConnection(@QueryParameter("pubuTeamDomain") final String teamDomain) throws FormException {
             try {
-                SlackService testSlackService = new StandardSlackService(teamDomain);
-                String message = "Hello Jenkins";
-                boolean success = testSlackService.publish(message, "green");
-                return success ? FormValidation.ok("Success") : FormValidation.error("Failure");
+                return testConnection(NotifierConfig.splitWebhooks(teamDomain), "Hello Jenkins");
             } catch (Exception e) {
                 return FormValidation.error("Client error : " + e.getMessage());
             }
         }
     }
 
-    public static class SlackJobProperty extends hudson.model.JobProperty<AbstractProject<?, ?>> {
+    public static class SlackJobProperty extends hudson.model.JobProperty<Job<?, ?>> {
 
         private String teamDomain;
         private String token;
@@ -193,6 +450,9 @@ public class SlackNotifier extends Notifier {
         private boolean notifyRepeatedFailure;
         private boolean includeTestSummary;
         private boolean showCommitList;
+        private boolean coalesceEvents;
+        private boolean digest;
+        private String messageTemplate;
 
         @DataBoundConstructor
         public SlackJobProperty(String teamDomain,
@@ -207,7 +467,10 @@ public class SlackNotifier extends Notifier {
                 boolean notifyBackToNormal,
                 boolean notifyRepeatedFailure,
                 boolean includeTestSummary,
-                boolean showCommitList) {
+                boolean showCommitList,
+                boolean coalesceEvents,
+                boolean digest,
+                String messageTemplate) {
             this.teamDomain = teamDomain;
             this.token = token;
             this.room = room;
@@ -221,6 +484,9 @@ public class SlackNotifier extends Notifier {
             this.notifyRepeatedFailure = notifyRepeatedFailure;
             this.includeTestSummary = includeTestSummary;
             this.showCommitList = showCommitList;
+            this.coalesceEvents = coalesceEvents;
+            this.digest = digest;
+            this.messageTemplate = messageTemplate;
         }
 
         @Exported
@@ -253,17 +519,34 @@ public class SlackNotifier extends Notifier {
             return showCommitList;
         }
 
+        @Exported
+        public boolean getCoalesceEvents() {
+            return coalesceEvents;
+        }
+
+        @Exported
+        public boolean getDigest() {
+            return digest;
+        }
+
+        @Exported
+        public String getMessageTemplate() {
+            return messageTemplate;
+        }
+
+        @Override
+        public Collection<? extends Action> getJobActions(Job<?, ?> job) {
+            if (!(job instanceof AbstractProject)) {
+                // replays walk freestyle builds only
+                return Collections.singletonList(new PubuDeliveriesAction(job));
+            }
+            return Arrays.asList(new PubuDeliveriesAction(job), new PubuReplayAction((AbstractProject<?, ?>) job));
+        }
+
         @Override
         public boolean prebuild(AbstractBuild<?, ?> build, BuildListener listener) {
             if (startNotification) {
-                Map<Descriptor<Publisher>, Publisher> map = build.getProject().getPublishersList().toMap();
-                for (Publisher publisher : map.values()) {
-                    if (publisher instanceof SlackNotifier) {
-                        logger.info("Invoking Started...");
-                        ((SlackNotifier) publisher).update();
-                        new ActiveNotifier((SlackNotifier) publisher).started(build);
-                    }
-                }
+                NotifierCache.get().getNotifier(build.getProject()).started(build);
             }
             return super.prebuild(build, listener);
         }
@@ -330,15 +613,15 @@ public class SlackNotifier extends Notifier {
                         sr.getParameter("pubuNotifyBackToNormal") != null,
                         sr.getParameter("pubuNotifyRepeatedFailure") != null,
                         sr.getParameter("includeTestSummary") != null,
-                        sr.getParameter("pubuShowCommitList") != null);
+                        sr.getParameter("pubuShowCommitList") != null,
+                        sr.getParameter("pubuCoalesceEvents") != null,
+                        sr.getParameter("pubuDigest") != null,
+                        checkTemplate(sr.getParameter("pubuMessageTemplate")));
             }
 
             public FormValidation doTestConnection(@QueryParameter("pubuTeamDomain") final String teamDomain) throws FormException {
                 try {
-                    SlackService testSlackService = new StandardSlackService(teamDomain);
-                    String message = "Pong";
-                    boolean success = testSlackService.publish(message, "green");
-                    return success ? FormValidation.ok("Success") : FormValidation.error("Failure");
+                    return testConnection(NotifierConfig.splitWebhooks(teamDomain), "Pong");
                 } catch (Exception e) {
                     logger.log(Level.WARNING, "Error posting to exception", e);
                     return FormValidation.error("Client error : " + e.getMessage());
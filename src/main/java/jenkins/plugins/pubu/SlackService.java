@@ -1,4 +1,5 @@
 package jenkins.plugins.pubu;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.json.JSONObject;
 
 public interface SlackService {
@@ -7,4 +8,16 @@ public interface SlackService {
     boolean publish(String message, String color);
 
     boolean publish(JSONObject payload);
+
+    /**
+     * Sends a payload that was already serialized, possibly shared with other destinations.
+     */
+    boolean publish(EncodedPayload payload);
+
+    /**
+     * Like {@link #publish(EncodedPayload)}, but returns at once with a future that completes with whether
+     * the payload was delivered, if the configured transport does not block. The future only fails if the
+     * destination refused the payload itself, which is then not worth keeping for a retry.
+     */
+    ListenableFuture<Boolean> publishAsync(EncodedPayload payload);
 }
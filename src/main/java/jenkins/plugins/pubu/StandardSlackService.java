@@ -1,35 +1,40 @@
 package jenkins.plugins.pubu;
 
-import org.apache.commons.httpclient.HttpClient;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
-
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import jenkins.model.Jenkins;
-import hudson.ProxyConfiguration;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-
 public class StandardSlackService implements SlackService {
 
     private static final Logger logger = Logger.getLogger(StandardSlackService.class.getName());
 
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_RETRY_AFTER = 5000;
+
+    /**
+     * Fails a delivery that Pubu refused for the payload itself, which sending it again cannot fix.
+     */
+    static final class RejectedException extends Exception {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
     private String host = "";
-    private String teamDomain;
-    private String token;
-    private String[] roomIds;
 
     public StandardSlackService(String url) {
         super();
         this.host = url;
-        this.teamDomain = url;
-        this.token = url;
     }
 
     public boolean publish(String message) {
@@ -37,99 +42,210 @@ public class StandardSlackService implements SlackService {
     }
 
     public boolean publish(JSONObject payload) {
-        logger.info("Posting: to " + host + " using " + host);
-        HttpClient client = getHttpClient();
-        PostMethod post = new PostMethod(host);
-
-        try {
-            payload.put("_version", 2);
-
-            post.addParameter("payload", payload.toString());
-            post.getParams().setContentCharset("UTF-8");
-            int responseCode = client.executeMethod(post);
-            String response = post.getResponseBodyAsString();
-            if (responseCode != HttpStatus.SC_OK) {
-                logger.log(Level.WARNING, "Pubu post may have failed. Response: " + response);
-                return false;
-            }
-            return true;
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Error posting to Pubu", e);
-            return false;
-        } finally {
-            logger.info("Posting succeeded");
-            post.releaseConnection();
-            return true;
-        }
+        return post(payload);
+    }
 
+    public boolean publish(EncodedPayload payload) {
+        return post(payload);
     }
 
     public boolean publish(String message, String color) {
-        String url = host;
-        logger.info("Posting: to " + host + " using " + url + ": " + message + " " + color);
-        HttpClient client = getHttpClient();
-        PostMethod post = new PostMethod(url);
         JSONObject json = new JSONObject();
+        json.put("attachments", attachments(message, color));
+        return post(json);
+    }
 
+    /**
+     * A single attachment showing the message in the given color.
+     */
+    static JSONArray attachments(String message, String color) {
+        JSONObject field = new JSONObject();
+        field.put("short", false);
+        field.put("value", message);
+
+        JSONArray fields = new JSONArray();
+        fields.put(field);
+
+        JSONObject attachment = new JSONObject();
+        attachment.put("fallback", message);
+        attachment.put("color", color);
+        attachment.put("fields", fields);
+        JSONArray attachments = new JSONArray();
+        attachments.put(attachment);
+        return attachments;
+    }
+
+    boolean post(JSONObject payload) {
+        return post(PayloadEncoder.get().encode(payload));
+    }
+
+    boolean post(EncodedPayload payload) {
+        return post(payload, 1);
+    }
+
+    /**
+     * @return true only if Pubu answered with 200
+     */
+    boolean post(EncodedPayload payload, int attempt) {
+        return deliver(payload, attempt) == HttpStatus.SC_OK;
+    }
+
+    /**
+     * @param attempt 1 for the first attempt, higher for retries
+     * @return the status Pubu answered with, 0 if there was no answer or {@link DeliveryLog#CIRCUIT_OPEN}
+     */
+    int deliver(EncodedPayload payload, int attempt) {
         try {
-            JSONObject field = new JSONObject();
-            field.put("short", false);
-            field.put("value", message);
+            RateLimiter.get().acquire(host);
+            return send(payload, attempt).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            // not expected, send handles every failure
+            logger.log(Level.WARNING, "Error posting to Pubu", e.getCause());
+            return 0;
+        }
+    }
 
+    /**
+     * Whether Pubu refused the payload itself: a client error other than a timeout or throttling.
+     */
+    static boolean isRejected(int status) {
+        return status >= 400 && status < 500 && status != HttpStatus.SC_REQUEST_TIMEOUT && status != SC_TOO_MANY_REQUESTS;
+    }
 
-            JSONArray fields = new JSONArray();
-            fields.put(field);
+    /**
+     * Posts without waiting: a webhook that is over its rate limit is posted to once its turn comes,
+     * without holding the calling thread meanwhile. The future fails with a {@link RejectedException}
+     * if Pubu refused the payload itself.
+     */
+    public ListenableFuture<Boolean> publishAsync(final EncodedPayload payload) {
+        final SettableFuture<Boolean> delivered = SettableFuture.create();
+        final FutureCallback<Integer> answered = new FutureCallback<Integer>() {
+            public void onSuccess(Integer status) {
+                if (isRejected(status)) {
+                    delivered.setException(new RejectedException("Pubu rejected the notification to " + PubuMetrics.label(host)
+                            + " with status " + status + ", not retrying it"));
+                } else {
+                    delivered.set(status == HttpStatus.SC_OK);
+                }
+            }
 
-            JSONObject attachment = new JSONObject();
-            attachment.put("fallback", message);
-            attachment.put("color", color);
-            attachment.put("fields", fields);
-            JSONArray attachments = new JSONArray();
-            attachments.put(attachment);
+            public void onFailure(Throwable t) {
+                delivered.setException(t);
+            }
+        };
+        long wait = RateLimiter.get().reserve(host);
+        if (wait <= 0) {
+            Futures.addCallback(send(payload, 1), answered);
+        } else {
+            RateLimiter.get().schedule(new Runnable() {
+                public void run() {
+                    Futures.addCallback(send(payload, 1), answered);
+                }
+            }, wait);
+        }
+        return delivered;
+    }
 
-            json.put("attachments", attachments);
+    public ListenableFuture<Boolean> publishAsync(String message, String color) {
+        JSONObject json = new JSONObject();
+        json.put("attachments", attachments(message, color));
+        return publishAsync(PayloadEncoder.get().encode(json));
+    }
 
+    /**
+     * Posts once the endpoint's turn has come.
+     *
+     * @return the status Pubu answered with, 0 if there was no answer or {@link DeliveryLog#CIRCUIT_OPEN}
+     */
+    private ListenableFuture<Integer> send(final EncodedPayload payload, final int attempt) {
+        if (!CircuitBreaker.get().allow(host)) {
+            logger.fine("Pubu endpoint " + PubuMetrics.label(host) + " circuit is open, not posting");
+            record(payload, DeliveryLog.CIRCUIT_OPEN, attempt, 0);
+            return Futures.immediateFuture(DeliveryLog.CIRCUIT_OPEN);
+        }
+        final long start = System.nanoTime();
+        final SettableFuture<Integer> delivered = SettableFuture.create();
+        ListenableFuture<PubuTransport.Response> response;
+        try {
+            response = Transports.get().current().send(host, payload);
+        } catch (RuntimeException e) {
+            // counted as a failed post, which also ends a probe of the circuit
+            response = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(response, new FutureCallback<PubuTransport.Response>() {
+            public void onSuccess(PubuTransport.Response response) {
+                delivered.set(handle(payload, attempt, response, System.nanoTime() - start));
+            }
 
-            post.addParameter("payload", json.toString());
-            post.getParams().setContentCharset("UTF-8");
-            int responseCode = client.executeMethod(post);
-            String response = post.getResponseBodyAsString();
-            if (responseCode != HttpStatus.SC_OK) {
-                logger.log(Level.WARNING, "Pubu post may have failed. Response: " + response);
-                return false;
+            public void onFailure(Throwable t) {
+                logger.log(Level.WARNING, "Error posting to Pubu", t);
+                finish(payload, attempt, 0, System.nanoTime() - start, false);
+                delivered.set(0);
             }
-            return true;
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Error posting to Pubu", e);
-            return false;
-        } finally {
-            logger.info("Posting succeeded");
-            post.releaseConnection();
-            return true;
+        });
+        return delivered;
+    }
+
+    private int handle(EncodedPayload payload, int attempt, PubuTransport.Response response, long nanos) {
+        int responseCode = response.getStatus();
+        // a throttling or client error still proves the endpoint is alive
+        boolean reachable = responseCode < 500 || responseCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+        finish(payload, attempt, responseCode, nanos, reachable);
+        if (responseCode == SC_TOO_MANY_REQUESTS || responseCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            long pause = retryAfter(response.getRetryAfter(), responseCode == SC_TOO_MANY_REQUESTS ? DEFAULT_RETRY_AFTER : 0);
+            logger.warning("Pubu throttled post to " + host + " (" + responseCode + "), pausing for " + pause + "ms");
+            RateLimiter.get().throttled(host, pause);
+        } else if (responseCode != HttpStatus.SC_OK) {
+            logger.log(Level.WARNING, "Pubu post may have failed. Response: " + response.getBody());
         }
+        return responseCode;
+    }
 
+    private void finish(EncodedPayload payload, int attempt, int status, long nanos, boolean reachable) {
+        PubuMetrics.get().recordDelivery(host, status, nanos, payload.getSize());
+        record(payload, status, attempt, nanos);
+        if (reachable) {
+            CircuitBreaker.get().success(host);
+        } else {
+            CircuitBreaker.get().failure(host);
+        }
     }
 
-    private HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
-        if (Jenkins.getInstance() != null) {
-            ProxyConfiguration proxy = Jenkins.getInstance().proxy;
-            if (proxy != null) {
-                client.getHostConfiguration().setProxy(proxy.name, proxy.port);
-                String username = proxy.getUserName();
-                String password = proxy.getPassword();
-                // Consider it to be passed if username specified. Sufficient?
-                if (username != null && !"".equals(username.trim())) {
-                    logger.info("Using proxy authentication (user=" + username + ")");
-                    // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
-                    // and
-                    // http://svn.apache.org/viewvc/httpcomponents/oac.hc3x/trunk/src/examples/BasicAuthenticationExample.java?view=markup
-                    client.getState().setProxyCredentials(AuthScope.ANY,
-                            new UsernamePasswordCredentials(username, password));
-                }
+    private void record(EncodedPayload payload, int status, int attempt, long nanos) {
+        JSONObject source = payload.getSource();
+        String project = source.optString("project", null);
+        String display = source.optString("display", null);
+        DeliveryLog.get().record(payload.getJob(), project, display, host, status, attempt, payload.getSize(), nanos);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Pubu delivery endpoint=" + PubuMetrics.label(host) + " project=" + project + " build=" + display
+                    + " status=" + status + " attempt=" + attempt + " bytes=" + payload.getSize() + " millis=" + nanos / 1000000);
+        }
+    }
+
+    /**
+     * Parses a {@code Retry-After} header given either as delta seconds or as an HTTP date.
+     */
+    static long retryAfter(String header, long defaultMillis) {
+        if (header == null) {
+            return defaultMillis;
+        }
+        String value = header.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtil.parseDate(value).getTime() - System.currentTimeMillis());
+            } catch (DateParseException ignored) {
+                return defaultMillis;
             }
         }
-        return client;
+    }
+
+    String getHost() {
+        return host;
     }
 
     void setHost(String host) {
@@ -0,0 +1,33 @@
+package jenkins.plugins.pubu;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over padded cells picked by thread id, so concurrent writers rarely touch the same
+ * cache line. Adding never allocates; reading sums the cells.
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = 8;
+    // one cell per 64-byte cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
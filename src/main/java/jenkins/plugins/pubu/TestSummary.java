@@ -0,0 +1,116 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Run;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Test counts of a build and the first few of its failing tests by name, each flagged as new, regressed
+ * or still failing against the previous build. The counts are cached on the action, but listing the
+ * failures loads the build's whole test result from disk, so that is only done for builds with failures.
+ * Only the selected failures are ever compared with the previous build, and summaries of builds with a
+ * final result are cached, so a build's test results are read once however many notifications mention them.
+ */
+final class TestSummary {
+
+    static final int MAX_FAILURES = 10;
+    private static final int MAX_CACHED = 256;
+
+    private static final LruCache<String, TestSummary> cache = new LruCache<String, TestSummary>(MAX_CACHED);
+
+    private static final Comparator<TestResult> BY_NAME = new Comparator<TestResult>() {
+        public int compare(TestResult a, TestResult b) {
+            return String.valueOf(a.getFullName()).compareTo(String.valueOf(b.getFullName()));
+        }
+    };
+
+    private final int total;
+    private final int failed;
+    private final int skipped;
+    private final JSONArray failures;
+
+    private TestSummary(int total, int failed, int skipped, JSONArray failures) {
+        this.total = total;
+        this.failed = failed;
+        this.skipped = skipped;
+        this.failures = failures;
+    }
+
+    /**
+     * @return the summary of the build's test results, or null if it has none
+     */
+    static TestSummary of(Run<?, ?> build) {
+        String key = build.getParent().getFullName() + "#" + build.getNumber();
+        TestSummary summary = cache.get(key);
+        if (summary != null) {
+            return summary;
+        }
+        AbstractTestResultAction<?> action = build.getAction(AbstractTestResultAction.class);
+        if (action == null) {
+            return null;
+        }
+        int failed = action.getFailCount();
+        JSONArray failures = new JSONArray();
+        if (failed > 0) {
+            // loads every test case of the build, not only the failed ones
+            for (TestResult test : firstFailures(action.getFailedTests(), MAX_FAILURES)) {
+                JSONObject failure = new JSONObject();
+                failure.put("name", test.getFullName());
+                failure.put("state", state(test));
+                failures.put(failure);
+            }
+        }
+        summary = new TestSummary(action.getTotalCount(), failed, action.getSkipCount(), failures);
+        // completion listeners run while the build is still in post-production, but its result is final
+        if (build.getResult() != null) {
+            cache.put(key, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Selects the {@code max} first tests by name with a bounded heap, so only the selection is sorted.
+     */
+    static List<TestResult> firstFailures(List<? extends TestResult> tests, int max) {
+        if (tests == null || max <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<TestResult> heap = new PriorityQueue<TestResult>(max + 1, Collections.reverseOrder(BY_NAME));
+        for (TestResult test : tests) {
+            if (heap.size() < max) {
+                heap.add(test);
+            } else if (BY_NAME.compare(test, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(test);
+            }
+        }
+        List<TestResult> first = new ArrayList<TestResult>(heap);
+        Collections.sort(first, BY_NAME);
+        return first;
+    }
+
+    private static String state(TestResult test) {
+        TestResult previous = test.getPreviousResult();
+        if (previous == null) {
+            return "new";
+        }
+        return previous.isPassed() ? "regressed" : "failing";
+    }
+
+    void addTo(JSONObject payload) {
+        payload.put("Passed", total - failed - skipped);
+        payload.put("Failed", failed);
+        payload.put("Skipped", skipped);
+        if (failures.length() > 0) {
+            payload.put("failedTests", failures);
+        }
+    }
+}
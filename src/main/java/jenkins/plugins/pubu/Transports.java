@@ -0,0 +1,79 @@
+package jenkins.plugins.pubu;
+
+import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+
+/**
+ * Holds the {@link PubuTransport} selected in the global settings. The non-blocking transport is built
+ * on first use and rebuilt when its timeouts or the Jenkins proxy settings change.
+ */
+public final class Transports {
+
+    private static final Transports INSTANCE = new Transports();
+
+    private final PubuTransport blocking = new HttpClientTransport();
+    private volatile boolean async;
+    private int connectTimeout = HttpClientPool.DEFAULT_CONNECT_TIMEOUT;
+    private int requestTimeout = HttpClientPool.DEFAULT_SOCKET_TIMEOUT;
+    private AsyncHttpTransport asyncTransport;
+    private ProxyConfiguration asyncProxy;
+
+    private Transports() {
+    }
+
+    static Transports get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Timeouts are in milliseconds.
+     */
+    synchronized void configure(boolean async, int connectTimeout, int requestTimeout) {
+        this.async = async;
+        if (asyncTransport != null && (!async || this.connectTimeout != connectTimeout || this.requestTimeout != requestTimeout)) {
+            asyncTransport.close();
+            asyncTransport = null;
+        }
+        this.connectTimeout = connectTimeout;
+        this.requestTimeout = requestTimeout;
+    }
+
+    boolean isAsync() {
+        return async;
+    }
+
+    PubuTransport current() {
+        return async ? asyncTransport() : blocking;
+    }
+
+    /**
+     * Jenkins replaces its {@link ProxyConfiguration} instance whenever the proxy settings are saved,
+     * so a reference check is enough to notice a change.
+     */
+    private synchronized PubuTransport asyncTransport() {
+        Jenkins jenkins = Jenkins.getInstance();
+        ProxyConfiguration proxy = jenkins == null ? null : jenkins.proxy;
+        if (asyncTransport != null && proxy != asyncProxy) {
+            asyncTransport.close();
+            asyncTransport = null;
+        }
+        if (asyncTransport == null) {
+            asyncTransport = new AsyncHttpTransport(connectTimeout, requestTimeout, proxy);
+            asyncProxy = proxy;
+        }
+        return asyncTransport;
+    }
+
+    synchronized void close() {
+        if (asyncTransport != null) {
+            asyncTransport.close();
+            asyncTransport = null;
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.close();
+    }
+}
@@ -0,0 +1,113 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the commits that triggered a build without changes of its own by walking its upstream causes
+ * breadth-first, up to a depth limit and without revisiting a build. Summaries are cached by job and
+ * build number, so the many downstream builds of one upstream build share a single computation.
+ */
+@SuppressWarnings("rawtypes")
+class UpstreamCommitResolver {
+
+    static final int DEFAULT_MAX_DEPTH = 5;
+    private static final int CACHE_SIZE = 256;
+
+    private static final UpstreamCommitResolver INSTANCE = new UpstreamCommitResolver();
+
+    private final LruCache<String, ChangeSetSummary> cache = new LruCache<String, ChangeSetSummary>(CACHE_SIZE);
+
+    UpstreamCommitResolver() {
+    }
+
+    static UpstreamCommitResolver get() {
+        return INSTANCE;
+    }
+
+    static final class Resolution {
+        final AbstractBuild build;
+        final ChangeSetSummary summary;
+
+        Resolution(AbstractBuild build, ChangeSetSummary summary) {
+            this.build = build;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * The nearest upstream build with changes, or null if there is none within {@code maxDepth} levels.
+     */
+    Resolution resolve(AbstractBuild build, int maxDepth, int maxCommits, int maxAuthors) {
+        Set<String> visited = new HashSet<String>();
+        visited.add(key(build));
+        List<AbstractBuild> level = upstreamBuilds(build);
+        for (int depth = 1; depth <= maxDepth && !level.isEmpty(); depth++) {
+            List<AbstractBuild> next = new ArrayList<AbstractBuild>();
+            for (AbstractBuild upstream : level) {
+                String key = key(upstream);
+                if (!visited.add(key)) {
+                    continue;
+                }
+                ChangeSetSummary summary = summary(upstream, key, maxCommits, maxAuthors);
+                if (!summary.isEmpty()) {
+                    return new Resolution(upstream, summary);
+                }
+                next.addAll(upstreamBuilds(upstream));
+            }
+            level = next;
+        }
+        return null;
+    }
+
+    private ChangeSetSummary summary(AbstractBuild build, String key, int maxCommits, int maxAuthors) {
+        String cacheKey = key + "@" + maxCommits + "/" + maxAuthors;
+        ChangeSetSummary summary = cache.get(cacheKey);
+        if (summary == null) {
+            summary = ChangeSetSummary.of(build.getChangeSet(), maxCommits, maxAuthors);
+            // a build in post-production has a final result and change set
+            if (build.getResult() != null) {
+                cache.put(cacheKey, summary);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Builds named by any of the build's upstream causes that still exist.
+     */
+    List<AbstractBuild> upstreamBuilds(Run<?, ?> build) {
+        List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return builds;
+        }
+        for (Cause cause : build.getCauses()) {
+            if (!(cause instanceof Cause.UpstreamCause)) {
+                continue;
+            }
+            Cause.UpstreamCause upstream = (Cause.UpstreamCause) cause;
+            AbstractProject project = jenkins.getItemByFullName(upstream.getUpstreamProject(), AbstractProject.class);
+            if (project == null) {
+                continue;
+            }
+            AbstractBuild upstreamBuild = (AbstractBuild) project.getBuildByNumber(upstream.getUpstreamBuild());
+            if (upstreamBuild != null) {
+                builds.add(upstreamBuild);
+            }
+        }
+        return builds;
+    }
+
+    private static String key(AbstractBuild build) {
+        return build.getProject().getFullName() + "#" + build.getNumber();
+    }
+}
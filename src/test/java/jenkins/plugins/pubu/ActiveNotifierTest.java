@@ -0,0 +1,37 @@
+package jenkins.plugins.pubu;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ActiveNotifierTest {
+
+    @Test
+    public void mergedFragmentNeverOverridesThePayload() {
+        JSONObject payload = new JSONObject();
+        payload.put("project", "app");
+        payload.put("display", "#7");
+        payload.put("event", "completed");
+        payload.put("status", "Failure");
+
+        JSONArray commits = new JSONArray();
+        JSONObject fragment = new JSONObject();
+        fragment.put("project", "upstream");
+        fragment.put("display", "#3");
+        fragment.put("event", "start");
+        fragment.put("authors", "alice");
+        fragment.put("commits", commits);
+
+        assertSame(payload, ActiveNotifier.merge(payload, fragment));
+        assertEquals("app", payload.getString("project"));
+        assertEquals("#7", payload.getString("display"));
+        assertEquals("completed", payload.getString("event"));
+        assertEquals("Failure", payload.getString("status"));
+        assertEquals("alice", payload.getString("authors"));
+        assertSame(commits, payload.get("commits"));
+        assertEquals(6, payload.length());
+    }
+}
@@ -0,0 +1,168 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BuildResultIndexTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void abortedBuildsDoNotHideThePreviousResult() {
+        BuildResultIndex.Entry entry = BuildResultIndex.EMPTY
+                .next(1, Result.FAILURE, MINUTE)
+                .next(2, Result.ABORTED, MINUTE)
+                .next(3, Result.ABORTED, MINUTE);
+        assertEquals(Result.ABORTED, entry.getLastResult());
+        assertEquals(Result.FAILURE, entry.getLastNonAbortedResult());
+        assertEquals(3, entry.getLastNumber());
+    }
+
+    @Test
+    public void failureStreakResetsOnSuccess() {
+        BuildResultIndex.Entry entry = BuildResultIndex.EMPTY
+                .next(1, Result.FAILURE, MINUTE)
+                .next(2, Result.FAILURE, MINUTE)
+                .next(3, Result.UNSTABLE, MINUTE)
+                .next(4, Result.FAILURE, MINUTE);
+        assertEquals(3, entry.getFailureStreak());
+        entry = entry.next(5, Result.SUCCESS, MINUTE);
+        assertEquals(0, entry.getFailureStreak());
+        assertEquals(5, entry.getLastSuccessNumber());
+    }
+
+    @Test
+    public void buildsCompletedWithoutTheIndexAreNoticed() throws Exception {
+        Job job = job();
+        Run first = run(job, 1, Result.SUCCESS, null);
+        BuildResultIndex.get().record(first);
+        // #2 and #3 completed while the job had no Pubu notifications
+        Run second = run(job, 2, Result.FAILURE, first);
+        Run third = run(job, 3, Result.FAILURE, second);
+        Run fourth = run(job, 4, null, third);
+        BuildResultIndex.Entry entry = BuildResultIndex.get().previous(fourth);
+        assertEquals(3, entry.getLastNumber());
+        assertEquals(2, entry.getFailureStreak());
+        assertEquals(1, entry.getLastSuccessNumber());
+        assertEquals(3, entry.getStats().getBuilds());
+    }
+
+    @Test
+    public void buildCompletedBeforeAnEarlierOneIsNotAGap() throws Exception {
+        Job job = job();
+        Run first = run(job, 1, Result.SUCCESS, null);
+        BuildResultIndex.get().record(first);
+        Run second = run(job, 2, null, first);
+        Run third = run(job, 3, Result.FAILURE, second);
+        when(third.getPreviousCompletedBuild()).thenReturn(first);
+        BuildResultIndex.get().record(third);
+        assertEquals(3, BuildResultIndex.get().previous(second).getLastNumber());
+    }
+
+    @Test
+    public void buildCompletedAfterALaterOneCountsInTheStatistics() throws Exception {
+        Job job = job();
+        Run first = run(job, 1, Result.SUCCESS, null);
+        BuildResultIndex.get().record(first);
+        Run second = run(job, 2, Result.FAILURE, first);
+        Run third = run(job, 3, Result.SUCCESS, second);
+        when(third.getPreviousCompletedBuild()).thenReturn(first);
+        BuildResultIndex.get().record(third);
+        BuildResultIndex.get().record(second);
+
+        BuildResultIndex.Entry entry = BuildResultIndex.get().previous(run(job, 4, null, third));
+        assertEquals(3, entry.getLastNumber());
+        assertEquals(Result.SUCCESS, entry.getLastResult());
+        assertEquals(0, entry.getFailureStreak());
+        assertEquals(3, entry.getStats().getBuilds());
+        assertEquals(1, entry.getStats().getFailures());
+    }
+
+    @Test
+    public void consecutiveBuildsDoNotLookUpTheHistory() throws Exception {
+        Job job = job();
+        Run first = run(job, 1, Result.SUCCESS, null);
+        BuildResultIndex.get().record(first);
+        Run second = run(job, 2, Result.FAILURE, first);
+        BuildResultIndex.get().record(second);
+        Run third = run(job, 3, null, second);
+        assertEquals(2, BuildResultIndex.get().previous(third).getLastNumber());
+        verify(second, never()).getPreviousCompletedBuild();
+        verify(third, never()).getPreviousCompletedBuild();
+    }
+
+    @Test
+    public void percentileIsWithinTenPercent() {
+        BuildResultIndex.Stats stats = new BuildResultIndex.Stats();
+        for (int i = 1; i <= 100; i++) {
+            stats = stats.next(Result.SUCCESS, i * MINUTE);
+        }
+        // only the last 50 builds, 51 to 100 minutes, count
+        assertEquals(50, stats.getBuilds());
+        long p95 = stats.getPercentileMillis(0.95);
+        assertTrue(String.valueOf(p95), p95 >= 99 * MINUTE && p95 <= 99 * MINUTE * 1.1);
+        long p0 = stats.getPercentileMillis(0);
+        assertTrue(String.valueOf(p0), p0 >= 51 * MINUTE && p0 <= 51 * MINUTE * 1.1);
+    }
+
+    @Test
+    public void averageFollowsRecentBuilds() {
+        BuildResultIndex.Stats stats = new BuildResultIndex.Stats();
+        for (int i = 1; i <= 30; i++) {
+            stats = stats.next(Result.SUCCESS, 10 * MINUTE);
+        }
+        assertEquals(10 * MINUTE, stats.getAverageMillis());
+        for (int i = 31; i <= 60; i++) {
+            stats = stats.next(Result.SUCCESS, 20 * MINUTE);
+        }
+        assertTrue(Math.abs(stats.getAverageMillis() - 20 * MINUTE) < MINUTE);
+    }
+
+    @Test
+    public void failureRateCoversTheWindow() {
+        BuildResultIndex.Stats stats = new BuildResultIndex.Stats();
+        for (int i = 1; i <= 50; i++) {
+            stats = stats.next(i % 5 == 0 ? Result.FAILURE : Result.SUCCESS, MINUTE);
+        }
+        assertEquals(10, stats.getFailures());
+        assertEquals(0.2, stats.getFailureRate(), 1e-9);
+        // aborted builds do not count, and older failures roll out of the window
+        stats = stats.next(Result.ABORTED, MINUTE);
+        for (int i = 52; i <= 101; i++) {
+            stats = stats.next(Result.SUCCESS, MINUTE);
+        }
+        assertEquals(0, stats.getFailures());
+    }
+
+    private Job job() throws Exception {
+        Job job = mock(Job.class);
+        when(job.getRootDir()).thenReturn(folder.newFolder());
+        return job;
+    }
+
+    private static Run run(Job job, int number, Result result, Run previous) {
+        Run run = mock(Run.class);
+        when(run.getParent()).thenReturn(job);
+        when(run.getNumber()).thenReturn(number);
+        when(run.getResult()).thenReturn(result);
+        when(run.getDuration()).thenReturn(MINUTE);
+        when(run.isBuilding()).thenReturn(result == null);
+        when(run.getPreviousBuild()).thenReturn(previous);
+        when(run.getPreviousCompletedBuild()).thenReturn(previous);
+        return run;
+    }
+}
@@ -0,0 +1,87 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ChangeSetSummaryTest {
+
+    @Test
+    public void commitsAndAuthorsAreCapped() {
+        ChangeLogSet changeSet = changeSet(
+                entry("alice", "a.txt"), entry("bob", "b.txt"), entry("alice", "a.txt"),
+                entry("carol", "c.txt"), entry("dave", "a.txt"));
+        ChangeSetSummary summary = ChangeSetSummary.of(changeSet, 2, 2);
+        assertFalse(summary.isEmpty());
+        assertEquals(5, summary.getCommitCount());
+        assertEquals(3, summary.getFileCount());
+        assertEquals("alice, bob, +2 more", summary.getAuthors());
+        JSONArray commits = summary.getCommits();
+        assertEquals(3, commits.length());
+        assertEquals("alice", commits.getJSONObject(0).getString("author"));
+        assertEquals("bob", commits.getJSONObject(1).getString("author"));
+        assertEquals("+3 more", commits.getJSONObject(2).getString("entry"));
+        assertEquals(3, commits.getJSONObject(2).getInt("more"));
+    }
+
+    @Test
+    public void nothingIsLeftOutUnderTheCaps() {
+        ChangeSetSummary summary = ChangeSetSummary.of(changeSet(entry("alice", "a.txt"), entry("bob", "b.txt")), 2, 2);
+        assertEquals("alice, bob", summary.getAuthors());
+        assertEquals(2, summary.getCommits().length());
+    }
+
+    @Test
+    public void countsAreKeptWithoutCommits() {
+        ChangeSetSummary summary = ChangeSetSummary.of(changeSet(entry("alice", "a.txt"), entry("bob", "b.txt")), 0, 20);
+        assertEquals(2, summary.getCommitCount());
+        assertEquals(2, summary.getFileCount());
+        assertEquals("alice, bob", summary.getAuthors());
+    }
+
+    @Test
+    public void missingChangeSetIsEmpty() {
+        ChangeSetSummary summary = ChangeSetSummary.of(null, 50, 20);
+        assertTrue(summary.isEmpty());
+        assertEquals(0, summary.getFileCount());
+        assertEquals("", summary.getAuthors());
+        assertEquals(0, summary.getCommits().length());
+        assertTrue(ChangeSetSummary.of(changeSet(), 50, 20).isEmpty());
+    }
+
+    @Test
+    public void entriesWithoutPathsCountNoFiles() {
+        ChangeLogSet.Entry entry = entry("alice");
+        when(entry.getAffectedPaths()).thenReturn(null);
+        ChangeSetSummary summary = ChangeSetSummary.of(changeSet(entry), 50, 20);
+        assertEquals(1, summary.getCommitCount());
+        assertEquals(0, summary.getFileCount());
+    }
+
+    private static ChangeLogSet changeSet(ChangeLogSet.Entry... entries) {
+        ChangeLogSet changeSet = mock(ChangeLogSet.class);
+        when(changeSet.iterator()).thenReturn(new ArrayList<ChangeLogSet.Entry>(Arrays.asList(entries)).iterator());
+        return changeSet;
+    }
+
+    private static ChangeLogSet.Entry entry(String author, String... paths) {
+        User user = mock(User.class);
+        when(user.getDisplayName()).thenReturn(author);
+        ChangeLogSet.Entry entry = mock(ChangeLogSet.Entry.class);
+        when(entry.getAuthor()).thenReturn(user);
+        when(entry.getMsg()).thenReturn("change by " + author);
+        when(entry.getAffectedPaths()).thenReturn(Arrays.asList(paths));
+        return entry;
+    }
+}
@@ -0,0 +1,57 @@
+package jenkins.plugins.pubu;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = CircuitBreaker.get();
+
+    @After
+    public void restoreDefaults() {
+        breaker.configure(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_FAILURE_WINDOW,
+                CircuitBreaker.DEFAULT_OPEN_DURATION);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        String url = "http://opens.example/hook";
+        breaker.configure(3, 60, 30);
+        breaker.failure(url);
+        breaker.failure(url);
+        assertTrue(breaker.allow(url));
+        breaker.failure(url);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(url));
+        assertFalse(breaker.allow(url));
+    }
+
+    @Test
+    public void successfulProbeClosesTheCircuit() {
+        String url = "http://recovers.example/hook";
+        breaker.configure(1, 60, 0);
+        breaker.failure(url);
+        assertTrue(breaker.allow(url));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(url));
+        assertFalse("only one probe at a time", breaker.allow(url));
+        breaker.success(url);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(url));
+    }
+
+    @Test
+    public void probeThatNeverAnswersIsGivenUp() {
+        String url = "http://hangs.example/hook";
+        breaker.configure(1, 60, 0);
+        breaker.failure(url);
+        long now = System.currentTimeMillis();
+        assertTrue(breaker.allow(url, now));
+        assertFalse(breaker.allow(url, now + 1000));
+        assertTrue("the next post probes instead", breaker.allow(url, now + CircuitBreaker.PROBE_TIMEOUT));
+        assertFalse(breaker.allow(url, now + CircuitBreaker.PROBE_TIMEOUT + 1000));
+        breaker.success(url);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(url));
+    }
+}
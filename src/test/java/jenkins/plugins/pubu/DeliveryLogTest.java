@@ -0,0 +1,40 @@
+package jenkins.plugins.pubu;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryLogTest {
+
+    @Test
+    public void keepsNewestDeliveriesFirst() {
+        DeliveryLog log = new DeliveryLog();
+        for (int i = 0; i < DeliveryLog.CAPACITY + 5; i++) {
+            log.record(i % 2 == 0 ? "even" : "odd", "Job", "#" + i, "https://hooks.pubu.im/services/abcdefghijkl", 200, 1, 100, 2000000);
+        }
+        List<DeliveryLog.Delivery> all = log.getDeliveries(null);
+        assertEquals(DeliveryLog.CAPACITY, all.size());
+        assertEquals("#" + (DeliveryLog.CAPACITY + 4), all.get(0).getDisplay());
+        assertEquals("#5", all.get(all.size() - 1).getDisplay());
+        assertEquals("hooks.pubu.im/services/abcd***d682ed", all.get(0).getEndpoint());
+        assertEquals(2, all.get(0).getRoundTripMillis());
+        assertTrue(all.get(0).isDelivered());
+    }
+
+    @Test
+    public void filtersByJob() {
+        DeliveryLog log = new DeliveryLog();
+        // two jobs in different folders showing the same name
+        log.record("x/a", "a", "#1", "http://localhost/hook", 500, 1, 10, 0);
+        log.record("y/a", "a", "#1", "http://localhost/hook", 0, 2, 10, 0);
+        log.record("x/a", "a", "#2", "http://localhost/hook", DeliveryLog.CIRCUIT_OPEN, 1, 10, 0);
+        List<DeliveryLog.Delivery> deliveries = log.getDeliveries("x/a");
+        assertEquals(2, deliveries.size());
+        assertEquals("circuit open", deliveries.get(0).getStatus());
+        assertEquals("500", deliveries.get(1).getStatus());
+        assertEquals("error", log.getDeliveries("y/a").get(0).getStatus());
+    }
+}
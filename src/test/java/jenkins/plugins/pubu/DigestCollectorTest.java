@@ -0,0 +1,34 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Result;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DigestCollectorTest {
+
+    @Test
+    public void summaryCountsFailuresAndRecoveries() {
+        DigestCollector.Digest digest = new DigestCollector.Digest("api-tests", "api-tests");
+        for (int i = 0; i < 3; i++) {
+            digest.add(Result.FAILURE, Result.SUCCESS);
+            digest.add(Result.SUCCESS, Result.FAILURE);
+        }
+        for (int i = 0; i < 4; i++) {
+            digest.add(Result.FAILURE, Result.FAILURE);
+        }
+        digest.lastDisplay = "#812";
+        assertEquals("api-tests: 7 failures, 3 recoveries in 15 min; last: FAILURE #812", digest.summary(15));
+    }
+
+    @Test
+    public void summaryMarksFlapping() {
+        DigestCollector.Digest digest = new DigestCollector.Digest("web", "web");
+        digest.add(Result.UNSTABLE, Result.SUCCESS);
+        digest.add(Result.SUCCESS, Result.UNSTABLE);
+        digest.add(Result.SUCCESS, Result.SUCCESS);
+        digest.flapping = true;
+        digest.lastDisplay = "#5";
+        assertEquals("web: 1 unstable build, 1 recovery, 1 success in 5 min (flapping); last: SUCCESS #5", digest.summary(5));
+    }
+}
@@ -0,0 +1,29 @@
+package jenkins.plugins.pubu;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HttpClientPoolTest {
+
+    @Test
+    public void webhooksOnTheSameHostShareAClient() {
+        HttpClientPool pool = HttpClientPool.get();
+        assertSame(pool.clientFor("https://hooks.pubu.im/services/aaa"),
+                pool.clientFor("https://HOOKS.pubu.im/services/bbb"));
+    }
+
+    @Test
+    public void differentHostsGetDifferentClients() {
+        HttpClientPool pool = HttpClientPool.get();
+        assertNotSame(pool.clientFor("https://hooks.pubu.im/services/aaa"),
+                pool.clientFor("https://other.pubu.im/services/aaa"));
+    }
+
+    @Test
+    public void hostKeyFallsBackToTheRawValue() {
+        assertEquals("hostvaluethatwillcausepublishtofail", HttpClientPool.hostKey("hostvaluethatwillcausepublishtofail"));
+    }
+}
@@ -0,0 +1,61 @@
+package jenkins.plugins.pubu;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void rendersVariablesAndSections() {
+        MessageTemplate template = MessageTemplate.compile(
+                "{{project}} {{display}}: {{status}}{{#failure}}, {{Failed}} failing{{/failure}}{{^failure}} :){{/failure}}");
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("project", "api");
+        values.put("display", "#812");
+        values.put("status", "Failure");
+        values.put("failure", true);
+        values.put("Failed", 7);
+        assertEquals("api #812: Failure, 7 failing", template.render(scope(values)));
+        values.put("status", "Success");
+        values.put("failure", false);
+        assertEquals("api #812: Success :)", template.render(scope(values)));
+    }
+
+    @Test
+    public void missingValuesRenderEmpty() {
+        assertEquals("[]", MessageTemplate.compile("[{{nothing}}{{#nothing}}x{{/nothing}}]").render(scope(new HashMap<String, Object>())));
+    }
+
+    @Test
+    public void compiledTemplatesAreShared() {
+        assertSame(MessageTemplate.compile("{{a}} and {{b}}"), MessageTemplate.compile("{{a}} and {{b}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedSectionIsRejected() {
+        MessageTemplate.compile("{{#failure}}oops");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedSectionIsRejected() {
+        MessageTemplate.compile("{{#failure}}oops{{/success}}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedTagIsRejected() {
+        MessageTemplate.compile("{{project");
+    }
+
+    private static MessageTemplate.Scope scope(final Map<String, Object> values) {
+        return new MessageTemplate.Scope() {
+            public Object get(String name) {
+                return values.get(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,368 @@
+package jenkins.plugins.pubu;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationDispatcherTest {
+
+    private static final int JOBS = 8;
+    private static final int EVENTS = 50;
+
+    @After
+    public void tearDown() {
+        NotificationDispatcher.get().configure(NotificationDispatcher.DEFAULT_POOL_SIZE,
+                NotificationDispatcher.DEFAULT_QUEUE_CAPACITY, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+    }
+
+    @Test
+    public void eventsOfOneJobArriveInOrder() throws Exception {
+        NotificationDispatcher.get().configure(4, 1000, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        RecordingService service = new RecordingService(JOBS * EVENTS);
+        for (int event = 0; event < EVENTS; event++) {
+            for (int job = 0; job < JOBS; job++) {
+                JSONObject payload = new JSONObject();
+                payload.put("project", "job-" + job);
+                payload.put("display", "#" + event);
+                assertTrue(NotificationDispatcher.get().dispatch("job-" + job, Collections.<SlackService>singletonList(service), payload));
+            }
+        }
+        assertTrue(service.done.await(30, TimeUnit.SECONDS));
+        for (int job = 0; job < JOBS; job++) {
+            List<String> displays = service.received.get("job-" + job);
+            assertEquals(EVENTS, displays.size());
+            for (int event = 0; event < EVENTS; event++) {
+                assertEquals("#" + event, displays.get(event));
+            }
+        }
+        assertEquals(0, NotificationDispatcher.get().getQueueSize());
+    }
+
+    @Test
+    public void queueIsBoundedAndDropsWhenFull() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.configure(1, 2, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            block(dispatcher, release);
+            CountDownLatch ran = new CountDownLatch(2);
+            assertTrue(dispatcher.execute(countDown(ran), "x", NotificationDispatcher.Priority.LOW));
+            assertTrue(dispatcher.execute(countDown(ran), "y", NotificationDispatcher.Priority.LOW));
+            assertEquals(2, dispatcher.getQueueSize());
+
+            CountDownLatch dropped = new CountDownLatch(1);
+            assertFalse(dispatcher.execute(countDown(dropped), "z", NotificationDispatcher.Priority.LOW));
+            assertEquals(2, dispatcher.getQueueSize());
+            assertEquals(1, dispatcher.getShedCount());
+
+            release.countDown();
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+            assertEquals(1, dropped.getCount());
+        } finally {
+            release.countDown();
+            dispatcher.drain();
+        }
+    }
+
+    @Test
+    public void drainWaitsForQueuedWorkThenRejects() throws Exception {
+        final NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.configure(1, 10, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        CountDownLatch release = new CountDownLatch(1);
+        block(dispatcher, release);
+        CountDownLatch ran = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(dispatcher.execute(countDown(ran), "job-" + i, NotificationDispatcher.Priority.LOW));
+        }
+
+        Thread drainer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.drain();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        drainer.start();
+        for (int i = 0; i < 1000 && drainer.getState() != Thread.State.TIMED_WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(dispatcher.execute(countDown(new CountDownLatch(1)), "late", NotificationDispatcher.Priority.HIGH));
+
+        release.countDown();
+        drainer.join(10000);
+        assertFalse(drainer.isAlive());
+        assertEquals(0, ran.getCount());
+        assertEquals(0, dispatcher.getQueueSize());
+    }
+
+    @Test
+    public void laneMovedUpWhileDrainingKeepsItsTasks() throws Exception {
+        final NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.configure(1, 10, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        CountDownLatch release = new CountDownLatch(1);
+        block(dispatcher, release);
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(dispatcher.execute(countDown(ran), "a", NotificationDispatcher.Priority.LOW));
+
+        Thread drainer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.drain();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        drainer.start();
+        for (int i = 0; i < 1000 && drainer.getState() != Thread.State.TIMED_WAITING; i++) {
+            Thread.sleep(10);
+        }
+        CountDownLatch rejected = new CountDownLatch(1);
+        assertFalse(dispatcher.execute(countDown(rejected), "a", NotificationDispatcher.Priority.HIGH));
+
+        release.countDown();
+        drainer.join(10000);
+        assertFalse(drainer.isAlive());
+        assertEquals(0, ran.getCount());
+        assertEquals(1, rejected.getCount());
+        assertEquals(0, dispatcher.getQueueSize());
+    }
+
+    @Test
+    public void drainDropsWhatIsLeftAfterTheTimeout() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.configure(1, 10, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        block(dispatcher, release);
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(dispatcher.execute(countDown(ran), "queued", NotificationDispatcher.Priority.HIGH));
+
+        long start = System.nanoTime();
+        dispatcher.drain();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        release.countDown();
+        assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void submittedTaskReportsWhetherItRan() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.configure(1, 10, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        block(dispatcher, release);
+        ListenableFuture<Boolean> dropped = dispatcher.submit(countDown(new CountDownLatch(1)), "dropped", NotificationDispatcher.Priority.HIGH);
+        assertFalse(dropped.isDone());
+        dispatcher.drain();
+        release.countDown();
+        assertFalse(dropped.get(10, TimeUnit.SECONDS));
+        assertFalse(dispatcher.submit(countDown(new CountDownLatch(1)), "late", NotificationDispatcher.Priority.HIGH).get());
+
+        NotificationDispatcher running = new NotificationDispatcher();
+        try {
+            assertTrue(running.submit(countDown(new CountDownLatch(1)), "ran", NotificationDispatcher.Priority.LOW).get(10, TimeUnit.SECONDS));
+        } finally {
+            running.drain();
+        }
+    }
+
+    @Test
+    public void fullQueueShedsLowPriorityFirst() throws Exception {
+        NotificationDispatcher dispatcher = NotificationDispatcher.get();
+        dispatcher.configure(1, 2, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "blocker", NotificationDispatcher.Priority.LOW);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long shed = dispatcher.getShedCount();
+
+        RecordingService service = new RecordingService(2);
+        List<SlackService> services = Collections.<SlackService>singletonList(service);
+        assertTrue(dispatcher.dispatch("a", services, payload("a", "#1"), NotificationDispatcher.Priority.LOW));
+        assertTrue(dispatcher.dispatch("b", services, payload("b", "#1"), NotificationDispatcher.Priority.LOW));
+        assertTrue(dispatcher.dispatch("c", services, payload("c", "#1"), NotificationDispatcher.Priority.HIGH));
+        assertFalse(dispatcher.dispatch("b", services, payload("b", "#2"), NotificationDispatcher.Priority.LOW));
+        assertEquals(shed + 2, dispatcher.getShedCount());
+
+        release.countDown();
+        assertTrue(service.done.await(10, TimeUnit.SECONDS));
+        assertFalse(service.received.containsKey("a"));
+        assertEquals(Collections.singletonList("#1"), service.received.get("b"));
+        assertEquals(Collections.singletonList("#1"), service.received.get("c"));
+    }
+
+    @Test
+    public void fullQueueMergesOnlyIntoTheLastOfTheSameKind() throws Exception {
+        NotificationDispatcher dispatcher = NotificationDispatcher.get();
+        dispatcher.configure(1, 2, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "blocker", NotificationDispatcher.Priority.LOW);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long merged = dispatcher.getMergedCount();
+
+        RecordingService service = new RecordingService(2);
+        List<SlackService> services = Collections.<SlackService>singletonList(service);
+        NotificationDispatcher.Priority low = NotificationDispatcher.Priority.LOW;
+        assertTrue(dispatcher.dispatch("a", services, payload("a", "start #1", "start"), low));
+        assertTrue(dispatcher.dispatch("a", services, payload("a", "completed #1", "completed"), low));
+        // would overtake the completion before it
+        assertFalse(dispatcher.dispatch("a", services, payload("a", "start #2", "start"), low));
+        assertTrue(dispatcher.dispatch("a", services, payload("a", "completed #2", "completed"), low));
+        assertEquals(merged + 1, dispatcher.getMergedCount());
+
+        release.countDown();
+        assertTrue(service.done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("start #1", "completed #2"), service.received.get("a"));
+    }
+
+    @Test
+    public void slowDestinationDoesNotHoldTheOthers() throws Exception {
+        NotificationDispatcher.get().configure(2, 1000, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingService slow = new RecordingService(1) {
+            @Override
+            public boolean publish(EncodedPayload payload) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.publish(payload);
+            }
+        };
+        RecordingService fast = new RecordingService(2);
+        List<SlackService> services = new ArrayList<SlackService>();
+        services.add(slow);
+        services.add(fast);
+        assertTrue(NotificationDispatcher.get().dispatch("a", services, payload("a", "#1")));
+        assertTrue(NotificationDispatcher.get().dispatch("a", Collections.<SlackService>singletonList(fast), payload("a", "#2")));
+        try {
+            assertTrue(fast.done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("#1", "#2"), fast.received.get("a"));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(slow.done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void block(NotificationDispatcher dispatcher, final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        assertTrue(dispatcher.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "blocker", NotificationDispatcher.Priority.LOW));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static JSONObject payload(String project, String display) {
+        JSONObject payload = new JSONObject();
+        payload.put("project", project);
+        payload.put("display", display);
+        return payload;
+    }
+
+    private static JSONObject payload(String project, String display, String event) {
+        JSONObject payload = payload(project, display);
+        payload.put("event", event);
+        return payload;
+    }
+
+    private static class RecordingService implements SlackService {
+        final Map<String, List<String>> received = Collections.synchronizedMap(new HashMap<String, List<String>>());
+        final CountDownLatch done;
+
+        RecordingService(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        public boolean publish(String message) {
+            return true;
+        }
+
+        public boolean publish(String message, String color) {
+            return true;
+        }
+
+        public boolean publish(JSONObject payload) {
+            return true;
+        }
+
+        public ListenableFuture<Boolean> publishAsync(EncodedPayload payload) {
+            return Futures.immediateFuture(publish(payload));
+        }
+
+        public boolean publish(EncodedPayload payload) {
+            String project = payload.getSource().optString("project");
+            List<String> displays;
+            synchronized (received) {
+                displays = received.get(project);
+                if (displays == null) {
+                    displays = new ArrayList<String>();
+                    received.put(project, displays);
+                }
+            }
+            try {
+                // give the other lanes a chance to run in between
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (displays) {
+                displays.add(payload.getSource().optString("display"));
+            }
+            done.countDown();
+            return true;
+        }
+    }
+}
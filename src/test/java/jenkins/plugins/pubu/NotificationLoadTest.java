@@ -0,0 +1,233 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives a burst of build completions through {@link SlackListener} and {@link ActiveNotifier} into a
+ * {@link StubPubuServer} that misbehaves at configurable rates, then waits for the outbox to catch up
+ * and checks throughput, end-to-end latency and lost or duplicated messages against thresholds.
+ * <p>
+ * Only runs with {@code -Dpubu.loadtest=true}, or {@code mvn test -Ploadtest}. Every
+ * {@code pubu.loadtest.*} property below can be overridden on the command line.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class NotificationLoadTest {
+
+    private static final int BUILDS = Integer.getInteger("pubu.loadtest.builds", 2000);
+    private static final int JOBS = Integer.getInteger("pubu.loadtest.jobs", 50);
+    private static final int THREADS = Integer.getInteger("pubu.loadtest.threads", 16);
+    private static final int LATENCY = Integer.getInteger("pubu.loadtest.latency", 20);
+    private static final double ERROR_RATE = rate("pubu.loadtest.errorRate", 0.01);
+    private static final double THROTTLE_RATE = rate("pubu.loadtest.throttleRate", 0.01);
+    private static final double DROP_RATE = rate("pubu.loadtest.dropRate", 0.005);
+    private static final int POOL_SIZE = Integer.getInteger("pubu.loadtest.poolSize", 8);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("pubu.loadtest.queueCapacity", 10000);
+    private static final int RATE_LIMIT = Integer.getInteger("pubu.loadtest.rateLimit", 0);
+    private static final int TIMEOUT = Integer.getInteger("pubu.loadtest.timeout", 300);
+
+    private static final double MIN_THROUGHPUT = rate("pubu.loadtest.minThroughput", 20);
+    private static final long MAX_P99 = Long.getLong("pubu.loadtest.maxP99", 120000);
+    private static final int MAX_LOST = Integer.getInteger("pubu.loadtest.maxLost", 0);
+    private static final int MAX_DUPLICATED = Integer.getInteger("pubu.loadtest.maxDuplicated", 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubPubuServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("pubu.loadtest"));
+        server = new StubPubuServer(LATENCY, ERROR_RATE, THROTTLE_RATE, DROP_RATE);
+        server.start();
+        Outbox.get().setDirectory(folder.newFolder("outbox"));
+        NotificationDispatcher.get().configure(POOL_SIZE, QUEUE_CAPACITY, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+        RateLimiter.get().configure(RATE_LIMIT, RateLimiter.DEFAULT_BURST);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+            NotificationDispatcher.get().configure(NotificationDispatcher.DEFAULT_POOL_SIZE,
+                    NotificationDispatcher.DEFAULT_QUEUE_CAPACITY, NotificationDispatcher.DEFAULT_SHUTDOWN_TIMEOUT);
+            RateLimiter.get().configure(RateLimiter.DEFAULT_RATE, RateLimiter.DEFAULT_BURST);
+        }
+    }
+
+    @Test
+    public void burstOfCompletions() throws Exception {
+        final ActiveNotifier notifier = new ActiveNotifier(new NotifierConfig(global(server.getUrl()), property()));
+        final SlackListener listener = new SlackListener() {
+            @Override
+            FineGrainedNotifier getNotifier(Job project) {
+                return notifier;
+            }
+        };
+
+        List<AbstractProject> jobs = new ArrayList<AbstractProject>();
+        for (int i = 0; i < JOBS; i++) {
+            jobs.add(job("load-" + i));
+        }
+        final List<AbstractBuild> builds = new ArrayList<AbstractBuild>();
+        final List<String> keys = new ArrayList<String>();
+        Result[] results = {Result.SUCCESS, Result.FAILURE, Result.UNSTABLE, Result.SUCCESS};
+        for (int i = 0; i < BUILDS; i++) {
+            AbstractProject job = jobs.get(i % JOBS);
+            int number = i / JOBS + 1;
+            builds.add(build(job, number, results[number % results.length]));
+            keys.add(StubPubuServer.key(job.getFullDisplayName(), "#" + number));
+        }
+
+        final ConcurrentMap<String, Long> submitted = new ConcurrentHashMap<String, Long>();
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        ExecutorService drivers = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            drivers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = next.getAndIncrement(); i < builds.size(); i = next.getAndIncrement()) {
+                            submitted.put(keys.get(i), System.nanoTime());
+                            listener.onCompleted(builds.get(i), TaskListener.NULL);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        drivers.shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (server.acceptedMessages() < keys.size() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        // let late duplicates arrive
+        Thread.sleep(1000);
+
+        int lost = 0;
+        int duplicated = 0;
+        long[] acceptedAt = new long[keys.size()];
+        long[] latencies = new long[keys.size()];
+        int delivered = 0;
+        for (String key : keys) {
+            int count = server.acceptedCount(key);
+            if (count == 0) {
+                lost++;
+                continue;
+            }
+            if (count > 1) {
+                duplicated++;
+            }
+            long accepted = server.firstAccepted(key);
+            acceptedAt[delivered] = accepted - start;
+            latencies[delivered++] = accepted - submitted.get(key);
+        }
+        latencies = Arrays.copyOf(latencies, delivered);
+        Arrays.sort(latencies);
+        acceptedAt = Arrays.copyOf(acceptedAt, delivered);
+        Arrays.sort(acceptedAt);
+        // sustained rate up to the 95th delivery percentile, so the tail of outbox retries does not dominate
+        int sustained = (int) Math.ceil(0.95 * delivered);
+        double seconds = delivered > 0 ? acceptedAt[sustained - 1] / 1e9 : 0;
+        double throughput = seconds > 0 ? sustained / seconds : sustained;
+        long p50 = percentile(latencies, 0.50);
+        long p99 = percentile(latencies, 0.99);
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "Pubu load test: %d builds, %d delivered, 95%% within %.1fs (%.1f/s), p50 %dms, p99 %dms, %d lost, %d duplicated; "
+                        + "server saw %d requests, %d errors, %d throttled, %d dropped",
+                keys.size(), delivered, seconds, throughput, p50, p99, lost, duplicated,
+                server.getRequests(), server.getErrors(), server.getThrottled(), server.getDropped()));
+
+        assertTrue("lost " + lost + " messages", lost <= MAX_LOST);
+        assertTrue("duplicated " + duplicated + " messages", duplicated <= MAX_DUPLICATED);
+        assertTrue("p99 latency " + p99 + "ms", p99 <= MAX_P99);
+        assertTrue("throughput " + throughput + "/s", throughput >= MIN_THROUGHPUT);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    private static double rate(String property, double defaultValue) {
+        String value = System.getProperty(property);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static SlackNotifier.DescriptorImpl global(String url) {
+        SlackNotifier.DescriptorImpl global = mock(SlackNotifier.DescriptorImpl.class);
+        when(global.getTeamDomain()).thenReturn(url);
+        when(global.getMaxCommits()).thenReturn(ChangeSetSummary.DEFAULT_MAX_COMMITS);
+        when(global.getMaxAuthors()).thenReturn(ChangeSetSummary.DEFAULT_MAX_AUTHORS);
+        when(global.getMaxUpstreamDepth()).thenReturn(UpstreamCommitResolver.DEFAULT_MAX_DEPTH);
+        return global;
+    }
+
+    private static SlackNotifier.SlackJobProperty property() {
+        SlackNotifier.SlackJobProperty property = mock(SlackNotifier.SlackJobProperty.class);
+        when(property.getNotifySuccess()).thenReturn(true);
+        when(property.getNotifyFailure()).thenReturn(true);
+        when(property.getNotifyRepeatedFailure()).thenReturn(true);
+        when(property.getNotifyUnstable()).thenReturn(true);
+        when(property.getNotifyBackToNormal()).thenReturn(true);
+        return property;
+    }
+
+    private AbstractProject job(String name) throws Exception {
+        AbstractProject job = mock(AbstractProject.class);
+        File rootDir = folder.newFolder(name);
+        when(job.getFullName()).thenReturn(name);
+        when(job.getFullDisplayName()).thenReturn(name);
+        when(job.getRootDir()).thenReturn(rootDir);
+        SlackNotifier.SlackJobProperty property = property();
+        when(job.getProperty(SlackNotifier.SlackJobProperty.class)).thenReturn(property);
+        return job;
+    }
+
+    private static AbstractBuild build(AbstractProject job, int number, Result result) {
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getParent()).thenReturn(job);
+        when(build.getProject()).thenReturn(job);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getResult()).thenReturn(result);
+        when(build.getDisplayName()).thenReturn("#" + number);
+        when(build.getUrl()).thenReturn("job/" + job.getFullName() + "/" + number + "/");
+        when(build.getDurationString()).thenReturn("1 min");
+        return build;
+    }
+}
@@ -0,0 +1,105 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class NotificationReplayTest {
+
+    private static final int BUILDS = 5;
+
+    private AbstractProject job;
+
+    /**
+     * Builds #1 to #5, started at 1000 ms times their number.
+     */
+    @Before
+    public void setUp() {
+        job = mock(AbstractProject.class);
+        AbstractBuild[] builds = new AbstractBuild[BUILDS + 1];
+        for (int number = 1; number <= BUILDS; number++) {
+            builds[number] = mock(AbstractBuild.class);
+            when(builds[number].getNumber()).thenReturn(number);
+            when(builds[number].getTimeInMillis()).thenReturn(1000L * number);
+            when(job.getNearestBuild(number)).thenReturn(builds[number]);
+        }
+        for (int number = 1; number <= BUILDS; number++) {
+            when(builds[number].getPreviousBuild()).thenReturn(number > 1 ? builds[number - 1] : null);
+            when(builds[number].getNextBuild()).thenReturn(number < BUILDS ? builds[number + 1] : null);
+        }
+        when(job.getFirstBuild()).thenReturn(builds[1]);
+        when(job.getLastBuild()).thenReturn(builds[BUILDS]);
+    }
+
+    @Test
+    public void walksBuildNumberRange() {
+        assertEquals(Arrays.asList(2, 3, 4), numbers(new NotificationReplay.Range(2, 4, 0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void walksTimeWindow() {
+        assertEquals(Arrays.asList(3, 4), numbers(new NotificationReplay.Range(0, Integer.MAX_VALUE, 2500, 4000)));
+    }
+
+    @Test
+    public void combinesNumberAndTime() {
+        assertEquals(Arrays.asList(4, 5), numbers(new NotificationReplay.Range(4, Integer.MAX_VALUE, 2000, Long.MAX_VALUE)));
+        assertEquals(Arrays.<Integer>asList(), numbers(new NotificationReplay.Range(1, 2, 3000, Long.MAX_VALUE)));
+    }
+
+    /**
+     * Finding the start of a time window must not load every build newer than it.
+     */
+    @Test
+    public void searchesTimeWindowWithoutWalkingHistory() {
+        final int[] loaded = new int[1];
+        AbstractProject history = mock(AbstractProject.class);
+        // only the even builds #2 to #10000 are kept, each started at its number in seconds
+        when(history.getNearestBuild(anyInt())).thenAnswer(new Answer<AbstractBuild>() {
+            public AbstractBuild answer(InvocationOnMock invocation) {
+                int number = Math.max(2, (Integer) invocation.getArguments()[0]);
+                loaded[0]++;
+                return build(number + number % 2);
+            }
+        });
+        AbstractBuild first = build(2);
+        AbstractBuild last = build(10000);
+        when(history.getFirstBuild()).thenReturn(first);
+        when(history.getLastBuild()).thenReturn(last);
+
+        Iterator<AbstractBuild<?, ?>> builds = NotificationReplay.builds(history,
+                new NotificationReplay.Range(0, Integer.MAX_VALUE, 4001000, Long.MAX_VALUE));
+        assertEquals(4002, builds.next().getNumber());
+        assertTrue("loaded " + loaded[0] + " builds", loaded[0] < 20);
+    }
+
+    private static AbstractBuild build(int number) {
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getTimeInMillis()).thenReturn(1000L * number);
+        return build;
+    }
+
+    private List<Integer> numbers(NotificationReplay.Range range) {
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (Iterator<AbstractBuild<?, ?>> it = NotificationReplay.builds(job, range); it.hasNext(); ) {
+            numbers.add(it.next().getNumber());
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,79 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractProject;
+import hudson.tasks.Publisher;
+import hudson.util.DescribableList;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class NotifierCacheTest {
+
+    private final DescribableList publishers = mock(DescribableList.class);
+
+    @After
+    public void tearDown() {
+        NotifierCache.get().invalidateAll();
+    }
+
+    @Test
+    public void notifierIsResolvedOnce() {
+        AbstractProject project = project("cached");
+        FineGrainedNotifier notifier = NotifierCache.get().getNotifier(project);
+        assertSame(notifier, NotifierCache.get().getNotifier(project));
+        verify(publishers, times(1)).get(SlackNotifier.class);
+    }
+
+    @Test
+    public void savedJobIsResolvedAgain() {
+        AbstractProject project = project("saved");
+        NotifierCache.get().getNotifier(project);
+        NotifierCache.get().invalidate("other");
+        NotifierCache.get().getNotifier(project);
+        verify(publishers, times(1)).get(SlackNotifier.class);
+
+        NotifierCache.get().invalidate("saved");
+        NotifierCache.get().getNotifier(project);
+        verify(publishers, times(2)).get(SlackNotifier.class);
+
+        NotifierCache.get().invalidateAll();
+        NotifierCache.get().getNotifier(project);
+        verify(publishers, times(3)).get(SlackNotifier.class);
+    }
+
+    @Test
+    public void saveDuringResolutionIsNotCachedOver() {
+        AbstractProject project = project("racing");
+        when(publishers.get(SlackNotifier.class)).thenAnswer(new Answer<Publisher>() {
+            private boolean saved;
+
+            public Publisher answer(InvocationOnMock invocation) {
+                if (!saved) {
+                    // the job is saved after its old configuration was read but before it is cached
+                    saved = true;
+                    NotifierCache.get().invalidate("racing");
+                }
+                return null;
+            }
+        });
+        NotifierCache.get().getNotifier(project);
+        NotifierCache.get().getNotifier(project);
+        NotifierCache.get().getNotifier(project);
+        verify(publishers, times(2)).get(SlackNotifier.class);
+    }
+
+    private AbstractProject project(String name) {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getFullName()).thenReturn(name);
+        when(project.getPublishersList()).thenReturn(publishers);
+        return project;
+    }
+}
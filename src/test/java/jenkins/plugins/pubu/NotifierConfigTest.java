@@ -0,0 +1,24 @@
+package jenkins.plugins.pubu;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotifierConfigTest {
+
+    @Test
+    public void webhooksAreSplitOnWhitespaceAndCommas() {
+        assertEquals(Arrays.asList("http://a/1", "http://b/2", "http://c/3"),
+                new ArrayList<String>(NotifierConfig.splitWebhooks(" http://a/1,http://b/2\n\nhttp://c/3 , http://a/1")));
+    }
+
+    @Test
+    public void noWebhooks() {
+        assertTrue(NotifierConfig.splitWebhooks(null).isEmpty());
+        assertTrue(NotifierConfig.splitWebhooks(" \n ").isEmpty());
+    }
+}
@@ -0,0 +1,190 @@
+package jenkins.plugins.pubu;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<Outbox> outboxes = new ArrayList<Outbox>();
+    private final List<StubPubuServer> servers = new ArrayList<StubPubuServer>();
+
+    @After
+    public void tearDown() {
+        for (Outbox outbox : outboxes) {
+            outbox.close();
+        }
+        for (StubPubuServer server : servers) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Entries that were not delivered before a restart must be picked up again from the journal.
+     */
+    @Test
+    public void pendingEntriesSurviveRestart() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = new Outbox(dir);
+        assertTrue(outbox.add("hostvaluethatwillcausepublishtofail", "{\"event\":\"completed\"}", "folder/job"));
+        assertTrue(outbox.add("hostvaluethatwillcausepublishtofail", "{\"event\":\"start\"}", null));
+        outbox.close();
+
+        Outbox restarted = new Outbox(dir);
+        try {
+            assertEquals(2, restarted.getPendingCount());
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void journalRollsOverToNewSegments() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = outbox(dir, 512, HOUR, HOUR);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(outbox.add(server(1).getUrl(), payload(i), null));
+        }
+        assertTrue(segments(dir).length > 1);
+        for (File segment : segments(dir)) {
+            // a segment is rolled once it is over the size, so it holds at most one record more
+            assertTrue(segment.length() < 512 + 200);
+        }
+    }
+
+    @Test
+    public void segmentSizeCountsBytesOnDisk() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = outbox(dir, 512, HOUR, HOUR);
+        // three bytes per character in UTF-8
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append('中');
+        }
+        String url = server(1).getUrl();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(outbox.add(url, "{\"text\":\"" + text + "\"}", null));
+        }
+        // each record is over 300 bytes but under 200 characters
+        assertEquals(3, segments(dir).length);
+    }
+
+    @Test
+    public void deliveredEntriesAreCompactedAway() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = outbox(dir, 256, 20, HOUR);
+        String url = server(0).getUrl();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(outbox.add(url, payload(i), null));
+        }
+        awaitPending(outbox, 0);
+        assertEquals(1, segments(dir).length);
+    }
+
+    @Test
+    public void liveEntriesOfOldSegmentsAreMovedForward() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = outbox(dir, 256, 20, HOUR);
+        String failing = server(1).getUrl();
+        for (int i = 0; i < 3 * Outbox.MAX_SEGMENTS; i++) {
+            assertTrue(outbox.add(failing, payload(i), null));
+        }
+        File first = segments(dir)[0];
+        String delivering = server(0).getUrl();
+        for (int i = 0; i < 4 && first.exists(); i++) {
+            assertTrue(outbox.add(delivering, payload(i), null));
+            awaitPending(outbox, 3 * Outbox.MAX_SEGMENTS);
+        }
+        assertFalse(first.exists());
+        outbox.close();
+
+        Outbox restarted = outbox(dir, 256, HOUR, HOUR);
+        assertEquals(3 * Outbox.MAX_SEGMENTS, restarted.getPendingCount());
+    }
+
+    @Test
+    public void entriesExpireAfterTheMaximumAge() throws Exception {
+        File dir = tmp.newFolder("outbox");
+        Outbox outbox = outbox(dir, 1024 * 1024, 20, 0);
+        assertTrue(outbox.add(server(1).getUrl(), payload(0), null));
+        awaitPending(outbox, 0);
+        outbox.close();
+        assertEquals(0, outbox(dir, 1024 * 1024, HOUR, HOUR).getPendingCount());
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToTheCap() {
+        Random random = new Random(42);
+        long previousMax = 0;
+        for (int attempts = 0; attempts < 30; attempts++) {
+            long max = Math.min(Outbox.INITIAL_BACKOFF << Math.min(attempts, 16), Outbox.MAX_BACKOFF);
+            long min = Long.MAX_VALUE;
+            long highest = 0;
+            for (int i = 0; i < 100; i++) {
+                long delay = Outbox.backoff(attempts, Outbox.INITIAL_BACKOFF, random);
+                assertTrue(delay >= max / 2 && delay <= max);
+                min = Math.min(min, delay);
+                highest = Math.max(highest, delay);
+            }
+            // jittered, not the same delay every time
+            assertTrue(highest > min);
+            assertTrue(max >= previousMax);
+            previousMax = max;
+        }
+        assertEquals(Outbox.MAX_BACKOFF, previousMax);
+    }
+
+    private Outbox outbox(File dir, long segmentSize, long initialBackoff, long maxAge) {
+        Outbox outbox = new Outbox(dir, segmentSize, initialBackoff, maxAge);
+        outboxes.add(outbox);
+        return outbox;
+    }
+
+    /**
+     * @param errorRate 1 for an endpoint that answers every post with a server error
+     */
+    private StubPubuServer server(double errorRate) throws Exception {
+        StubPubuServer server = new StubPubuServer(0, errorRate, 0, 0);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private static String payload(int i) {
+        return "{\"project\":\"outbox\",\"display\":\"#" + i + "\",\"event\":\"completed\"}";
+    }
+
+    private static File[] segments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("segment-");
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void awaitPending(Outbox outbox, int count) throws InterruptedException {
+        for (int i = 0; i < 200 && outbox.getPendingCount() != count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, outbox.getPendingCount());
+    }
+}
@@ -0,0 +1,106 @@
+package jenkins.plugins.pubu;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadEncoderTest {
+
+    @Test
+    public void sizeIsMeasuredInUtf8Bytes() {
+        JSONObject payload = new JSONObject();
+        payload.put("a", "é中");
+        // {"a":"  "} with a 2-byte and a 3-byte character
+        assertEquals(13, PayloadEncoder.sizeOf(payload));
+    }
+
+    @Test
+    public void smallPayloadsAreLeftAlone() {
+        JSONObject payload = payloadWithCommits(3);
+        PayloadEncoder.truncate(payload, 64 * 1024);
+        assertEquals(3, payload.getJSONArray("commits").length());
+        assertFalse(payload.has("commitsTruncated"));
+    }
+
+    @Test
+    public void oversizedCommitListIsCutToFit() {
+        JSONObject payload = payloadWithCommits(5000);
+        PayloadEncoder.truncate(payload, 16 * 1024);
+        JSONArray commits = payload.getJSONArray("commits");
+        assertTrue(commits.length() > 0);
+        assertEquals(5000 - commits.length(), payload.getInt("commitsTruncated"));
+        assertTrue(PayloadEncoder.sizeOf(payload) <= 16 * 1024);
+    }
+
+    @Test
+    public void markersFitWithinTheLimit() {
+        for (int limit = 2000; limit < 2400; limit += 7) {
+            JSONObject payload = payloadWithCommits(100);
+            long size = PayloadEncoder.truncate(payload, limit);
+            assertEquals(PayloadEncoder.sizeOf(payload), size);
+            assertTrue(size <= limit);
+        }
+    }
+
+    @Test
+    public void longFieldsAreShortenedOnceCommitsAreGone() {
+        JSONObject payload = payloadWithCommits(10);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append('x');
+        }
+        payload.put("text", text.toString());
+        long size = PayloadEncoder.truncate(payload, 2000);
+        assertEquals(0, payload.getJSONArray("commits").length());
+        assertEquals(10, payload.getInt("commitsTruncated"));
+        assertTrue(payload.has("truncated"));
+        assertEquals(PayloadEncoder.sizeOf(payload), size);
+        assertTrue(size <= 2000);
+    }
+
+    @Test
+    public void formBodyMatchesUrlEncoder() throws Exception {
+        PayloadEncoder encoder = PayloadEncoder.get();
+        encoder.configure(false, false, PayloadEncoder.DEFAULT_MAX_PAYLOAD_SIZE);
+        JSONObject payload = new JSONObject();
+        payload.put("text", "a b+c&d=é中 \uD83D\uDE00 ~*._-");
+        EncodedPayload encoded = encoder.encode(payload);
+        String expected = "payload=" + URLEncoder.encode(payload.toString(), "UTF-8");
+        assertEquals(expected, new String(encoded.getBody(), "US-ASCII"));
+        assertEquals(expected.length(), encoded.getLength());
+    }
+
+    @Test
+    public void jsonBodyIsTheDocument() throws Exception {
+        PayloadEncoder encoder = PayloadEncoder.get();
+        encoder.configure(true, false, PayloadEncoder.DEFAULT_MAX_PAYLOAD_SIZE);
+        try {
+            JSONObject payload = payloadWithCommits(3);
+            EncodedPayload encoded = encoder.encode(payload);
+            assertEquals(payload.toString(), new String(encoded.getBody(), "UTF-8"));
+            assertEquals(encoded.getSize(), encoded.getLength());
+        } finally {
+            encoder.configure(false, false, PayloadEncoder.DEFAULT_MAX_PAYLOAD_SIZE);
+        }
+    }
+
+    private static JSONObject payloadWithCommits(int count) {
+        JSONArray commits = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject commit = new JSONObject();
+            commit.put("entry", "Commit message number " + i);
+            commit.put("author", "dev" + (i % 7));
+            commits.put(commit);
+        }
+        JSONObject payload = new JSONObject();
+        payload.put("project", "monorepo");
+        payload.put("commits", commits);
+        return payload;
+    }
+}
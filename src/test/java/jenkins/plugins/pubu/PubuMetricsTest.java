@@ -0,0 +1,34 @@
+package jenkins.plugins.pubu;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PubuMetricsTest {
+
+    @Test
+    public void histogramBucketsByUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500000L);
+        histogram.record(3000000L);
+        histogram.record(60000000000L);
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getBucket(0));
+        assertEquals(1, histogram.getBucket(1));
+        assertEquals(1, histogram.getBucket(LatencyHistogram.BOUNDS.length));
+    }
+
+    @Test
+    public void labelHidesTokens() {
+        assertEquals("hooks.pubu.im/services/abcd***f39dac",
+                PubuMetrics.label("https://hooks.pubu.im/services/abcdefghijklmnop"));
+        assertEquals("invalid", PubuMetrics.label("not a url"));
+    }
+
+    @Test
+    public void tokensSharingAPrefixGetDifferentLabels() {
+        String label = PubuMetrics.label("https://hooks.pubu.im/services/abcdefghijklmnop");
+        assertFalse(label.equals(PubuMetrics.label("https://hooks.pubu.im/services/abcdefghijklmnoq")));
+    }
+}
@@ -0,0 +1,91 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class PubuSendStepTest {
+
+    private StubPubuServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubPubuServer(0, 0, 0, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void stepCompletesOnceDelivered() {
+        PubuSendStep step = new PubuSendStep("deployed");
+        step.setWaitForDelivery(true);
+        StepContext context = mock(StepContext.class);
+        assertFalse(step.send(run("pipeline", 7), services(), context));
+        verify(context, timeout(10000)).onSuccess(true);
+        assertEquals(1, server.acceptedCount(StubPubuServer.key("pipeline", "#7")));
+    }
+
+    @Test
+    public void stepReturnsOnceQueued() throws Exception {
+        PubuSendStep step = new PubuSendStep(null);
+        StepContext context = mock(StepContext.class);
+        assertTrue(step.send(run("pipeline", 8), services(), context));
+        verify(context).onSuccess(true);
+        String key = StubPubuServer.key("pipeline", "#8");
+        for (int i = 0; i < 100 && server.acceptedCount(key) == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, server.acceptedCount(key));
+    }
+
+    @Test
+    public void stepFailsWhenThePayloadCannotBeBuilt() {
+        final IllegalStateException failure = new IllegalStateException("no test results");
+        PubuSendStep step = new PubuSendStep("deployed") {
+            @Override
+            JSONObject payload(Run<?, ?> run) {
+                throw failure;
+            }
+        };
+        step.setWaitForDelivery(true);
+        StepContext context = mock(StepContext.class);
+        assertFalse(step.send(run("pipeline", 9), services(), context));
+        verify(context, timeout(10000)).onFailure(failure);
+        assertEquals(0, server.acceptedCount(StubPubuServer.key("pipeline", "#9")));
+    }
+
+    private List<SlackService> services() {
+        return Collections.<SlackService>singletonList(new StandardSlackService(server.getUrl()));
+    }
+
+    private static Run run(String name, int number) {
+        Job job = mock(Job.class);
+        when(job.getFullName()).thenReturn(name);
+        when(job.getFullDisplayName()).thenReturn(name);
+        Run run = mock(Run.class);
+        when(run.getParent()).thenReturn(job);
+        when(run.getNumber()).thenReturn(number);
+        when(run.getDisplayName()).thenReturn("#" + number);
+        return run;
+    }
+}
@@ -0,0 +1,57 @@
+package jenkins.plugins.pubu;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    @After
+    public void tearDown() {
+        RateLimiter.get().configure(RateLimiter.DEFAULT_RATE, RateLimiter.DEFAULT_BURST);
+    }
+
+    @Test
+    public void reserveReturnsTheTurnWithoutWaiting() {
+        RateLimiter limiter = RateLimiter.get();
+        limiter.configure(1, 2);
+        String url = "http://pubu.example/reserve";
+        long start = System.currentTimeMillis();
+        assertEquals(0, limiter.reserve(url));
+        assertEquals(0, limiter.reserve(url));
+        long third = limiter.reserve(url);
+        long fourth = limiter.reserve(url);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertTrue(third > 500 && third <= 1000);
+        assertTrue(fourth > 1500 && fourth <= 2000);
+    }
+
+    @Test
+    public void pauseDelaysTheNextTurn() {
+        RateLimiter limiter = RateLimiter.get();
+        limiter.configure(10, 20);
+        String url = "http://pubu.example/pause";
+        limiter.throttled(url, 5000);
+        long wait = limiter.reserve(url);
+        assertTrue(wait > 4000 && wait <= 5000);
+    }
+
+    @Test
+    public void scheduledTaskRunsOnTheWorkers() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final String[] thread = new String[1];
+        RateLimiter.get().schedule(new Runnable() {
+            public void run() {
+                thread[0] = Thread.currentThread().getName();
+                ran.countDown();
+            }
+        }, 50);
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        assertTrue(thread[0], thread[0].startsWith("Pubu notifier"));
+    }
+}
@@ -3,6 +3,10 @@ package jenkins.plugins.pubu;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class StandardSlackServiceTest {
 
     /**
@@ -32,4 +36,26 @@ public class StandardSlackServiceTest {
         StandardSlackService service = new StandardSlackService("tinyspeck");
         service.publish("message");
     }
+
+    @Test
+    public void retryAfterAcceptsDeltaSeconds() {
+        assertEquals(3000, StandardSlackService.retryAfter("3", 5000));
+    }
+
+    @Test
+    public void retryAfterFallsBackToDefault() {
+        assertEquals(5000, StandardSlackService.retryAfter(null, 5000));
+        assertEquals(5000, StandardSlackService.retryAfter("soon", 5000));
+    }
+
+    @Test
+    public void onlyClientErrorsOtherThanThrottlingAreRejections() {
+        assertTrue(StandardSlackService.isRejected(400));
+        assertTrue(StandardSlackService.isRejected(404));
+        assertFalse(StandardSlackService.isRejected(408));
+        assertFalse(StandardSlackService.isRejected(429));
+        assertFalse(StandardSlackService.isRejected(503));
+        assertFalse(StandardSlackService.isRejected(0));
+        assertFalse(StandardSlackService.isRejected(DeliveryLog.CIRCUIT_OPEN));
+    }
 }
@@ -0,0 +1,195 @@
+package jenkins.plugins.pubu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stands in for the Pubu webhook endpoint on the loopback interface. Every request is delayed by the
+ * configured latency and then, at the configured rates, answered with a 500, a 429 or a dropped
+ * connection; everything else is accepted with a 200. Accepted messages are counted by
+ * {@code project} and {@code display}, so lost and duplicated notifications can be told apart.
+ */
+class StubPubuServer {
+
+    private final int latencyMillis;
+    private final double errorRate;
+    private final double throttleRate;
+    private final double dropRate;
+    private final Random random = new Random();
+
+    private final ConcurrentMap<String, AtomicInteger> accepted = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, Long> firstAccepted = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    StubPubuServer(int latencyMillis, double errorRate, double throttleRate, double dropRate) {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.dropRate = dropRate;
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hook", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        String body = IOUtils.toString(gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody(), "UTF-8");
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        if (roll < dropRate) {
+            dropped.incrementAndGet();
+            // closing without a response looks like a dropped connection to the client
+            return;
+        }
+        roll -= dropRate;
+        if (roll < throttleRate) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 429, "slow down");
+            return;
+        }
+        roll -= throttleRate;
+        if (roll < errorRate) {
+            errors.incrementAndGet();
+            send(exchange, 500, "error");
+            return;
+        }
+        String key = key(body);
+        send(exchange, 200, "ok");
+        if (key != null) {
+            firstAccepted.putIfAbsent(key, System.nanoTime());
+            AtomicInteger count = accepted.putIfAbsent(key, new AtomicInteger(1));
+            if (count != null) {
+                count.incrementAndGet();
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = message.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Reads the message identity from either the form-encoded or the JSON payload format.
+     */
+    private static String key(String body) throws IOException {
+        String json = body;
+        if (!body.startsWith("{")) {
+            json = null;
+            for (String parameter : body.split("&")) {
+                if (parameter.startsWith("payload=")) {
+                    json = URLDecoder.decode(parameter.substring("payload=".length()), "UTF-8");
+                }
+            }
+        }
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONObject payload = new JSONObject(json);
+            return key(payload.optString("project"), payload.optString("display"));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    static String key(String project, String display) {
+        return project + " " + display;
+    }
+
+    /**
+     * @return how often the message was accepted, 0 if never
+     */
+    int acceptedCount(String key) {
+        AtomicInteger count = accepted.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the message was first accepted, or null
+     */
+    Long firstAccepted(String key) {
+        return firstAccepted.get(key);
+    }
+
+    int acceptedMessages() {
+        return accepted.size();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getThrottled() {
+        return throttled.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+}
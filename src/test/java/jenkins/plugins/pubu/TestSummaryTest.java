@@ -0,0 +1,95 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class TestSummaryTest {
+
+    @Test
+    public void selectsFirstFailuresByName() {
+        List<TestResult> tests = new ArrayList<TestResult>();
+        for (int i = 0; i < 100; i++) {
+            tests.add(test(String.format("t%03d", i)));
+        }
+        Collections.shuffle(tests);
+        List<TestResult> first = TestSummary.firstFailures(tests, 3);
+        assertEquals(3, first.size());
+        assertEquals("t000", first.get(0).getFullName());
+        assertEquals("t001", first.get(1).getFullName());
+        assertEquals("t002", first.get(2).getFullName());
+    }
+
+    @Test
+    public void fewerFailuresThanLimit() {
+        List<TestResult> tests = new ArrayList<TestResult>();
+        tests.add(test("b"));
+        tests.add(test("a"));
+        List<TestResult> first = TestSummary.firstFailures(tests, 10);
+        assertEquals(2, first.size());
+        assertEquals("a", first.get(0).getFullName());
+        assertTrue(TestSummary.firstFailures(null, 10).isEmpty());
+    }
+
+    @Test
+    public void summaryIsCachedOnceTheResultIsFinal() {
+        AbstractTestResultAction action = action();
+        Run build = build("post-production", action);
+        // completion listeners see the build still in post-production
+        when(build.isBuilding()).thenReturn(true);
+        when(build.getResult()).thenReturn(Result.UNSTABLE);
+        TestSummary summary = TestSummary.of(build);
+        assertSame(summary, TestSummary.of(build));
+        verify(action, times(1)).getFailedTests();
+    }
+
+    @Test
+    public void summaryIsNotCachedWithoutAResult() {
+        AbstractTestResultAction action = action();
+        Run build = build("running", action);
+        when(build.isBuilding()).thenReturn(true);
+        TestSummary.of(build);
+        TestSummary.of(build);
+        verify(action, times(2)).getFailedTests();
+    }
+
+    private static AbstractTestResultAction action() {
+        AbstractTestResultAction action = mock(AbstractTestResultAction.class);
+        when(action.getTotalCount()).thenReturn(3);
+        when(action.getFailCount()).thenReturn(1);
+        when(action.getFailedTests()).thenReturn(Collections.singletonList(test("t")));
+        return action;
+    }
+
+    private static Run build(String job, AbstractTestResultAction action) {
+        Job parent = mock(Job.class);
+        when(parent.getFullName()).thenReturn(job);
+        Run build = mock(Run.class);
+        when(build.getParent()).thenReturn(parent);
+        when(build.getNumber()).thenReturn(1);
+        when(build.getAction(AbstractTestResultAction.class)).thenReturn(action);
+        return build;
+    }
+
+    private static TestResult test(String name) {
+        TestResult test = mock(TestResult.class);
+        when(test.getFullName()).thenReturn(name);
+        return test;
+    }
+}
@@ -0,0 +1,175 @@
+package jenkins.plugins.pubu;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class UpstreamCommitResolverTest {
+
+    private final Map<Run, List<AbstractBuild>> upstream = new HashMap<Run, List<AbstractBuild>>();
+
+    private final UpstreamCommitResolver resolver = new UpstreamCommitResolver() {
+        @Override
+        List<AbstractBuild> upstreamBuilds(Run<?, ?> build) {
+            List<AbstractBuild> builds = upstream.get(build);
+            return builds != null ? new ArrayList<AbstractBuild>(builds) : new ArrayList<AbstractBuild>();
+        }
+    };
+
+    @Test
+    public void stopsAtTheDepthLimit() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild test = build("test", 1, 0);
+        AbstractBuild compile = build("compile", 1, 0);
+        AbstractBuild checkout = build("checkout", 1, 2);
+        triggers(test, downstream);
+        triggers(compile, test);
+        triggers(checkout, compile);
+
+        assertNull(resolver.resolve(downstream, 2, 50, 20));
+        UpstreamCommitResolver.Resolution resolution = resolver.resolve(downstream, 3, 50, 20);
+        assertSame(checkout, resolution.build);
+        assertEquals(2, resolution.summary.getCommitCount());
+    }
+
+    @Test
+    public void nearestUpstreamWithChangesWins() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild near = build("near", 4, 1);
+        AbstractBuild far = build("far", 9, 3);
+        triggers(near, downstream);
+        triggers(far, near);
+        assertSame(near, resolver.resolve(downstream, 5, 50, 20).build);
+    }
+
+    @Test
+    public void cyclesAreWalkedOnce() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild a = build("a", 1, 0);
+        AbstractBuild b = build("b", 1, 0);
+        triggers(a, downstream);
+        triggers(b, a);
+        triggers(a, b);
+        triggers(downstream, b);
+
+        assertNull(resolver.resolve(downstream, 100, 50, 20));
+        verify(a, times(1)).getChangeSet();
+        verify(b, times(1)).getChangeSet();
+        verify(downstream, times(0)).getChangeSet();
+    }
+
+    @Test
+    public void summariesAreCachedPerBuildAndCaps() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild other = build("deploy", 2, 0);
+        AbstractBuild checkout = build("checkout", 7, 2);
+        triggers(checkout, downstream);
+        triggers(checkout, other);
+
+        resolver.resolve(downstream, 5, 50, 20);
+        resolver.resolve(other, 5, 50, 20);
+        verify(checkout, times(1)).getChangeSet();
+
+        // a different cap changes what is kept, so it is summarized again
+        assertEquals(2, resolver.resolve(downstream, 5, 1, 20).summary.getCommits().length());
+        verify(checkout, times(2)).getChangeSet();
+        resolver.resolve(downstream, 5, 50, 1);
+        verify(checkout, times(3)).getChangeSet();
+    }
+
+    @Test
+    public void runningBuildsAreNotCached() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild checkout = build("checkout", 7, 1);
+        when(checkout.isBuilding()).thenReturn(true);
+        when(checkout.getResult()).thenReturn(null);
+        triggers(checkout, downstream);
+
+        resolver.resolve(downstream, 5, 50, 20);
+        resolver.resolve(downstream, 5, 50, 20);
+        verify(checkout, times(2)).getChangeSet();
+    }
+
+    @Test
+    public void buildsInPostProductionAreCached() {
+        AbstractBuild downstream = build("deploy", 1, 0);
+        AbstractBuild checkout = build("checkout", 7, 1);
+        when(checkout.isBuilding()).thenReturn(true);
+        triggers(checkout, downstream);
+
+        resolver.resolve(downstream, 5, 50, 20);
+        resolver.resolve(downstream, 5, 50, 20);
+        verify(checkout, times(1)).getChangeSet();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    private void triggers(AbstractBuild cause, AbstractBuild build) {
+        List<AbstractBuild> builds = upstream.get(build);
+        if (builds == null) {
+            builds = new ArrayList<AbstractBuild>();
+            upstream.put(build, builds);
+        }
+        builds.add(cause);
+    }
+
+    private static AbstractBuild build(String job, int number, int commits) {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getFullName()).thenReturn(job);
+        final List<ChangeLogSet.Entry> entries = new ArrayList<ChangeLogSet.Entry>();
+        for (int i = 0; i < commits; i++) {
+            User user = mock(User.class);
+            when(user.getDisplayName()).thenReturn("dev" + i);
+            ChangeLogSet.Entry entry = mock(ChangeLogSet.Entry.class);
+            when(entry.getAuthor()).thenReturn(user);
+            when(entry.getAffectedPaths()).thenReturn(Arrays.asList("file" + i));
+            entries.add(entry);
+        }
+        ChangeLogSet changeSet = mock(ChangeLogSet.class);
+        when(changeSet.iterator()).thenAnswer(new Answer<Iterator>() {
+            public Iterator answer(InvocationOnMock invocation) {
+                return entries.iterator();
+            }
+        });
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getParent()).thenReturn(project);
+        when(build.getProject()).thenReturn(project);
+        when(build.getNumber()).thenReturn(number);
+        when(build.getChangeSet()).thenReturn(changeSet);
+        when(build.getResult()).thenReturn(Result.SUCCESS);
+        return build;
+    }
+}